@@ -7,10 +7,14 @@
 
 package frc.robot;
 
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import frc.robot.util.Alert;
 import frc.robot.util.Alert.AlertType;
+import frc.robot.util.LoggedTunableTransform3d;
 
 /**
  * The Constants class provides a convenient place for teams to hold robot-wide numerical or boolean
@@ -28,6 +32,7 @@ public final class Constants {
   public static final double loopPeriodSecs = 0.02;
   private static RobotType robotType = RobotType.COMPBOT;
   public static final boolean tuningMode = false;
+  public static final boolean loopProfiling = true; // See LoopProfiler
 
   public static RobotType getRobot() {
     if (!disableHAL && RobotBase.isReal() && robotType == RobotType.SIMBOT) {
@@ -92,6 +97,55 @@ public final class Constants {
     public static final double actuationOffset = 1.9 - actuationStartPosition;
   }
 
+  public final class VisionConstants {
+    // Standard deviation of a single tag at one meter, scaled by distance squared over tag count
+    public static final double xyStdDevCoefficient = 0.01;
+    public static final double thetaStdDevCoefficient = 0.03;
+    // MegaTag2 takes its heading from the gyro, so never correct heading with it
+    public static final double megaTag2ThetaStdDev = Double.POSITIVE_INFINITY;
+    // Tags smaller than this percent of the image are trusted proportionally less
+    public static final double minTagArea = 0.1;
+    // Std devs grow by this fraction per rad/s of spin, since motion blurs the image
+    public static final double angularVelocityStdDevCoefficient = 0.5;
+    // Limelight 3 field of view, degrees
+    public static final double limelightHorizontalFov = 62.5;
+    public static final double limelightVerticalFov = 48.9;
+
+    /**
+     * A Limelight running MegaTag2.
+     *
+     * @param name NetworkTables name of the Limelight.
+     * @param stdDevFactor Multiplier on the std devs of every estimate from this camera.
+     * @param robotToCamera Camera position on the robot, tunable under {@code
+     *     Vision/<name>/RobotToCamera}. Positive pitch tilts the camera down.
+     */
+    public record Camera(
+        String name, double stdDevFactor, LoggedTunableTransform3d robotToCamera) {
+      public Camera(String name, double stdDevFactor, Transform3d robotToCamera) {
+        this(
+            name,
+            stdDevFactor,
+            new LoggedTunableTransform3d("Vision/" + name + "/RobotToCamera", robotToCamera));
+      }
+    }
+
+    public static final Camera shooterCamera =
+        new Camera(
+            "limelight-shooter",
+            1.0,
+            new Transform3d(
+                new Translation3d(-0.28, 0.0, 0.52),
+                new Rotation3d(0.0, Math.toRadians(-25.0), Math.PI)));
+    public static final Camera intakeCamera =
+        new Camera(
+            "limelight-intake",
+            1.5,
+            new Transform3d(
+                new Translation3d(0.30, 0.0, 0.38),
+                new Rotation3d(0.0, Math.toRadians(20.0), 0.0)));
+    public static final Camera[] cameras = {shooterCamera, intakeCamera};
+  }
+
   public final class IntakeConstants {
     public static final double intakeGearRatio = 1.3333333333333333333;
 
@@ -141,6 +195,19 @@ public final class Constants {
     public static double chainShotSpeed = 54; // 44
     public static double championshipShotSpeed = 52;
     public static double passShotSpeed = 42.5; // 30
+
+    // Run the flywheels with a model based LQR and Kalman filter instead of the Talon velocity PID
+    public static final boolean stateSpaceFlywheel = false;
+    // Flywheel model for one Falcon 500. Velocities are read at the motor, so the gearing is one
+    // and the inertia is the flywheel's reflected to the motor
+    public static final double flywheelMoiKgMetersSquared = 0.0019;
+    public static final double flywheelGearing = 1.0;
+    // Trust in the model and the encoder, rotations per second
+    public static final double flywheelModelStdDev = 3.0;
+    public static final double flywheelEncoderStdDev = 0.1;
+    // Velocity error the LQR tolerates before using full voltage, also the metrics at speed band
+    public static final double flywheelVelocityTolerance = 2.0;
+    public static final double maxFlywheelVoltage = 12.0;
   }
 
   public final class ClimberConstants {
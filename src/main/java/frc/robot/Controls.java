@@ -33,6 +33,7 @@ public class Controls {
   public static Trigger podiumShot = driver.leftTrigger(0.1);
   public static Trigger passShot = driver.leftBumper();
   public static Trigger ampShot = dPadOreinted ? driver.pov(270) : driver.x();
+  public static Trigger aimedShot = dPadOreinted ? driver.y() : driver.pov(0);
 
   public static Trigger cancelShot = dPadOreinted ? driver.pov(90) : driver.b();
 }
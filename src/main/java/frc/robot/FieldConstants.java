@@ -10,6 +10,7 @@ package frc.robot;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.geometry.*;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.Filesystem;
@@ -150,6 +151,9 @@ public class FieldConstants {
   }
 
   public static final double aprilTagWidth = Units.inchesToMeters(6.50);
+  // Official layout bundled with WPILib, for code that cannot load the deploy directory
+  public static final AprilTagFieldLayout bundledAprilTagLayout =
+      AprilTagFields.k2024Crescendo.loadAprilTagLayoutField();
   public static final AprilTagLayoutType defaultAprilTagType = AprilTagLayoutType.OFFICIAL;
 
   public enum AprilTagLayoutType {
@@ -5,7 +5,9 @@ package frc.robot;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.wpi.first.math.geometry.Pose2d;
@@ -22,7 +24,12 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LimelightHelpers {
 
@@ -331,6 +338,10 @@ public class LimelightHelpers {
       return toPose2D(botpose_wpiblue);
     }
 
+    public Pose3d getCameraPose3d_RobotSpace() {
+      return toPose3D(camerapose_robotspace);
+    }
+
     @JsonProperty("Retro")
     public LimelightTarget_Retro[] targets_Retro;
 
@@ -371,6 +382,38 @@ public class LimelightHelpers {
     }
   }
 
+  /** Target arrays that can be requested from {@link #getCachedResults(String, Set)}. */
+  public enum TargetType {
+    RETRO,
+    FIDUCIAL,
+    CLASSIFIER,
+    DETECTOR,
+    BARCODE
+  }
+
+  /** JSON parse metrics for one Limelight, updated every time its results are parsed. */
+  public static class JSONParseStats {
+    public long parseCount;
+    public long cacheHitCount;
+    public double lastParseMillis;
+    public double maxParseMillis;
+    public double totalParseMillis;
+
+    private void record(double millis) {
+      parseCount++;
+      lastParseMillis = millis;
+      maxParseMillis = Math.max(maxParseMillis, millis);
+      totalParseMillis += millis;
+    }
+  }
+
+  private static class CachedResults {
+    final JSONParseStats stats = new JSONParseStats();
+    LimelightResults results = null;
+    Set<TargetType> targetTypes = EnumSet.noneOf(TargetType.class);
+    long lastChange = -1;
+  }
+
   public static class RawFiducial {
     public int id = 0;
     public double txnc = 0;
@@ -472,6 +515,12 @@ public class LimelightHelpers {
   }
 
   private static ObjectMapper mapper;
+  private static final Set<TargetType> allTargetTypes = EnumSet.allOf(TargetType.class);
+  private static final Map<String, CachedResults> resultsCache = new ConcurrentHashMap<>();
+  // Tables and entries by name, so helpers don't look them up again on every call
+  private static final Map<String, NetworkTable> tables = new ConcurrentHashMap<>();
+  private static final Map<String, Map<String, NetworkTableEntry>> entries =
+      new ConcurrentHashMap<>();
 
   /** Print JSON Parse time to the console in milliseconds */
   static boolean profileJSON = false;
@@ -515,7 +564,17 @@ public class LimelightHelpers {
 
   private static PoseEstimate getBotPoseEstimate(String limelightName, String entryName) {
     var poseEntry = LimelightHelpers.getLimelightNTTableEntry(limelightName, entryName);
-    var poseArray = poseEntry.getDoubleArray(new double[0]);
+    return toPoseEstimate(poseEntry.getDoubleArray(new double[0]), poseEntry.getLastChange());
+  }
+
+  /**
+   * Parses a botpose array, such as one received by a NetworkTables listener.
+   *
+   * @param poseArray Value of a botpose entry
+   * @param changeTimeMicros Time the value was published, in microseconds
+   * @return The pose estimate. Raw fiducials are left null if the array has the wrong length.
+   */
+  public static PoseEstimate toPoseEstimate(double[] poseArray, long changeTimeMicros) {
     var pose = toPose2D(poseArray);
     double latency = extractArrayEntry(poseArray, 6);
     int tagCount = (int) extractArrayEntry(poseArray, 7);
@@ -523,7 +582,7 @@ public class LimelightHelpers {
     double tagDist = extractArrayEntry(poseArray, 9);
     double tagArea = extractArrayEntry(poseArray, 10);
     // getlastchange() in microseconds, ll latency in milliseconds
-    var timestamp = (poseEntry.getLastChange() / 1000000.0) - (latency / 1000.0);
+    var timestamp = (changeTimeMicros / 1000000.0) - (latency / 1000.0);
 
     RawFiducial[] rawFiducials = new RawFiducial[tagCount];
     int valsPerFiducial = 7;
@@ -647,11 +706,14 @@ public class LimelightHelpers {
   }
 
   public static NetworkTable getLimelightNTTable(String tableName) {
-    return NetworkTableInstance.getDefault().getTable(sanitizeName(tableName));
+    return tables.computeIfAbsent(
+        sanitizeName(tableName), name -> NetworkTableInstance.getDefault().getTable(name));
   }
 
   public static NetworkTableEntry getLimelightNTTableEntry(String tableName, String entryName) {
-    return getLimelightNTTable(tableName).getEntry(entryName);
+    return entries
+        .computeIfAbsent(sanitizeName(tableName), name -> new ConcurrentHashMap<>())
+        .computeIfAbsent(entryName, name -> getLimelightNTTable(tableName).getEntry(name));
   }
 
   public static double getLimelightNTDouble(String tableName, String entryName) {
@@ -1091,24 +1153,181 @@ public class LimelightHelpers {
 
     long start = System.nanoTime();
     LimelightHelpers.LimelightResults results = new LimelightHelpers.LimelightResults();
-    if (mapper == null) {
-      mapper =
-          new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    }
 
     try {
-      results = mapper.readValue(getJSONDump(limelightName), LimelightResults.class);
+      results = getMapper().readValue(getJSONDump(limelightName), LimelightResults.class);
     } catch (JsonProcessingException e) {
       results.error = "lljson error: " + e.getMessage();
     }
 
+    recordParseTime(limelightName, results, start);
+    return results;
+  }
+
+  /**
+   * Returns the results of the latest frame with every target type, parsing the JSON dump only if
+   * it changed since the last call. Only call from one thread.
+   */
+  public static LimelightResults getCachedResults(String limelightName) {
+    return getCachedResults(limelightName, allTargetTypes);
+  }
+
+  /**
+   * Returns the results of the latest frame, parsing the JSON dump only if it changed since the
+   * last call. Target arrays not in {@code targetTypes} are skipped while parsing and left empty,
+   * which saves most of the parse time when only poses are needed. The returned object is shared
+   * between calls until the next frame, so do not modify it. Only call from one thread.
+   */
+  public static LimelightResults getCachedResults(
+      String limelightName, Set<TargetType> targetTypes) {
+    CachedResults cached = getCache(limelightName);
+    NetworkTableEntry entry = getLimelightNTTableEntry(limelightName, "json");
+    long lastChange = entry.getLastChange();
+    if (cached.results != null
+        && cached.lastChange == lastChange
+        && cached.targetTypes.containsAll(targetTypes)) {
+      cached.stats.cacheHitCount++;
+      return cached.results;
+    }
+
+    long start = System.nanoTime();
+    LimelightResults results = new LimelightResults();
+    try {
+      parseResults(entry.getString(""), targetTypes, results);
+    } catch (IOException e) {
+      results.error = "lljson error: " + e.getMessage();
+    }
+    recordParseTime(limelightName, results, start);
+
+    cached.results = results;
+    cached.targetTypes = targetTypes;
+    cached.lastChange = lastChange;
+    return results;
+  }
+
+  /** Returns the JSON parse metrics for a Limelight. Only call from one thread. */
+  public static JSONParseStats getJSONParseStats(String limelightName) {
+    return getCache(limelightName).stats;
+  }
+
+  private static CachedResults getCache(String limelightName) {
+    return resultsCache.computeIfAbsent(sanitizeName(limelightName), name -> new CachedResults());
+  }
+
+  private static ObjectMapper getMapper() {
+    if (mapper == null) {
+      mapper =
+          new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+    return mapper;
+  }
+
+  private static void recordParseTime(String limelightName, LimelightResults results, long start) {
     long end = System.nanoTime();
     double millis = (end - start) * .000001;
     results.targetingResults.latency_jsonParse = millis;
+    getCache(limelightName).stats.record(millis);
     if (profileJSON) {
       System.out.printf("lljson: %.2f\r\n", millis);
     }
+  }
 
-    return results;
+  /** Streams through the JSON dump, reading only the requested target arrays. */
+  private static void parseResults(
+      String json, Set<TargetType> targetTypes, LimelightResults results) throws IOException {
+    try (JsonParser parser = getMapper().getFactory().createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        JsonToken token = parser.nextToken();
+        if (name.equals("Results") && token == JsonToken.START_OBJECT) {
+          parseTargetingResults(parser, targetTypes, results.targetingResults);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  private static void parseTargetingResults(
+      JsonParser parser, Set<TargetType> targetTypes, Results results) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      switch (name) {
+        case "pID" -> results.pipelineID = parser.getValueAsDouble();
+        case "tl" -> results.latency_pipeline = parser.getValueAsDouble();
+        case "cl" -> results.latency_capture = parser.getValueAsDouble();
+        case "ts" -> results.timestamp_LIMELIGHT_publish = parser.getValueAsDouble();
+        case "ts_rio" -> results.timestamp_RIOFPGA_capture = parser.getValueAsDouble();
+        case "v" -> results.valid = parser.getValueAsDouble() != 0.0;
+        case "botpose" -> results.botpose = readDoubleArray(parser);
+        case "botpose_wpired" -> results.botpose_wpired = readDoubleArray(parser);
+        case "botpose_wpiblue" -> results.botpose_wpiblue = readDoubleArray(parser);
+        case "botpose_tagcount" -> results.botpose_tagcount = parser.getValueAsDouble();
+        case "botpose_span" -> results.botpose_span = parser.getValueAsDouble();
+        case "botpose_avgdist" -> results.botpose_avgdist = parser.getValueAsDouble();
+        case "botpose_avgarea" -> results.botpose_avgarea = parser.getValueAsDouble();
+        case "t6c_rs" -> results.camerapose_robotspace = readDoubleArray(parser);
+        case "Retro" -> {
+          if (targetTypes.contains(TargetType.RETRO)) {
+            results.targets_Retro = getMapper().readValue(parser, LimelightTarget_Retro[].class);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        case "Fiducial" -> {
+          if (targetTypes.contains(TargetType.FIDUCIAL)) {
+            results.targets_Fiducials =
+                getMapper().readValue(parser, LimelightTarget_Fiducial[].class);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        case "Classifier" -> {
+          if (targetTypes.contains(TargetType.CLASSIFIER)) {
+            results.targets_Classifier =
+                getMapper().readValue(parser, LimelightTarget_Classifier[].class);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        case "Detector" -> {
+          if (targetTypes.contains(TargetType.DETECTOR)) {
+            results.targets_Detector =
+                getMapper().readValue(parser, LimelightTarget_Detector[].class);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        case "Barcode" -> {
+          if (targetTypes.contains(TargetType.BARCODE)) {
+            results.targets_Barcode =
+                getMapper().readValue(parser, LimelightTarget_Barcode[].class);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+  }
+
+  private static double[] readDoubleArray(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return new double[6];
+    }
+    double[] values = new double[6];
+    int count = 0;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+      }
+      values[count++] = parser.getValueAsDouble();
+    }
+    return count == values.length ? values : Arrays.copyOf(values, count);
   }
 }
@@ -19,6 +19,7 @@ import edu.wpi.first.wpilibj2.command.button.Trigger;
 import frc.robot.commands.limelight.SeedPoseEstimation;
 import frc.robot.util.Alert;
 import frc.robot.util.Alert.AlertType;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.VirtualSubsystem;
 import java.util.HashMap;
 import java.util.Map;
@@ -140,6 +141,7 @@ public class Robot extends LoggedRobot {
             (Command command) -> {
               logCommandFunction.accept(command, false);
             });
+    CommandScheduler.getInstance().onCommandExecute(LoopProfiler::recordCommandExecute);
 
     // Reset alert timers
     canInitialErrorTimer.restart();
@@ -155,12 +157,33 @@ public class Robot extends LoggedRobot {
   @Override
   public void robotPeriodic() {
     Threads.setCurrentThreadPriority(true, 99);
-    VirtualSubsystem.periodicAll();
-    CommandScheduler.getInstance().run();
+    LoopProfiler.startCycle();
+    LoopProfiler.push("VirtualSubsystems");
+    try {
+      VirtualSubsystem.periodicAll();
+    } finally {
+      LoopProfiler.pop();
+    }
+    LoopProfiler.push("CommandScheduler");
+    try {
+      CommandScheduler.getInstance().run();
+    } finally {
+      LoopProfiler.pop();
+    }
 
     // Robot container periodic methods
-    robotContainer.checkControllers();
-    robotContainer.updateDashboardOutputs();
+    LoopProfiler.push("CheckControllers");
+    try {
+      robotContainer.checkControllers();
+    } finally {
+      LoopProfiler.pop();
+    }
+    LoopProfiler.push("DashboardOutputs");
+    try {
+      robotContainer.updateDashboardOutputs();
+    } finally {
+      LoopProfiler.pop();
+    }
 
     // Check CAN status
     var canStatus = RobotController.getCANStatus();
@@ -193,6 +216,7 @@ public class Robot extends LoggedRobot {
     // GC alert
     gcAlert.set(Timer.getFPGATimestamp() < 45.0);
 
+    LoopProfiler.endCycle();
     Threads.setCurrentThreadPriority(true, 10);
   }
 
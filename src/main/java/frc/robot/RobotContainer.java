@@ -33,20 +33,51 @@ import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.ParallelCommandGroup;
 import edu.wpi.first.wpilibj2.command.RepeatCommand;
+import edu.wpi.first.wpilibj2.command.WaitUntilCommand;
 import edu.wpi.first.wpilibj2.command.button.JoystickButton;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
 import frc.robot.commands.automation.AutoShootSequence;
 import frc.robot.commands.automation.PickUpPiece;
 import frc.robot.commands.automation.PickUpPieceAuto;
+import frc.robot.commands.automation.PrepareForShoot;
 import frc.robot.commands.automation.StopIntake;
 import frc.robot.commands.automation.ZeroAngle;
-// import frc.robot.commands.drivetrain.AutoTurnToGoal;
+import frc.robot.commands.drivetrain.AutoTurnToGoal;
 import frc.robot.subsystems.drive.*;
+import frc.robot.subsystems.vision.LimelightSim;
+import frc.robot.subsystems.vision.NoteDetectionIO;
+import frc.robot.subsystems.vision.NoteDetectionIOLimelight;
+import frc.robot.subsystems.vision.NoteTracker;
+import frc.robot.subsystems.vision.Vision;
+import frc.robot.subsystems.vision.VisionIO;
+import frc.robot.subsystems.vision.VisionIOLimelight;
+import frc.robot.subsystems.vision.VisionThroughput;
 import frc.robot.util.*;
 import frc.robot.util.Alert.AlertType;
+import java.util.function.DoubleSupplier;
 
 public class RobotContainer {
   private final RobotState robotState = RobotState.getInstance();
+  // Speaker shot for the robot's current pose and velocity. Out of range, the last valid shot is
+  // held so a shot already in progress never gets NaN setpoints.
+  private double lastAimedHoodAngle = angleRestingPosition;
+  private double lastAimedFlywheelSpeed = 0.0;
+  private final DoubleSupplier aimedHoodAngle =
+      () -> {
+        var aimingParameters = robotState.getAimingParameters();
+        if (aimingParameters.valid()) {
+          lastAimedHoodAngle = aimingParameters.hoodAngle();
+        }
+        return lastAimedHoodAngle;
+      };
+  private final DoubleSupplier aimedFlywheelSpeed =
+      () -> {
+        var aimingParameters = robotState.getAimingParameters();
+        if (aimingParameters.valid()) {
+          lastAimedFlywheelSpeed = aimingParameters.flywheelSpeed();
+        }
+        return lastAimedFlywheelSpeed;
+      };
   private static boolean isIntaking = false;
   private final Alert driverDisconnected =
       new Alert("Driver controller disconnected (port 0).", AlertType.WARNING);
@@ -82,19 +113,19 @@ public class RobotContainer {
           drive =
               new Drive(
                   new GyroIOPigeon2(true),
-                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[0]),
-                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[1]),
-                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[2]),
-                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[3]));
+                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[0], 0),
+                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[1], 1),
+                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[2], 2),
+                  new ModuleIOKrakenFOC(DriveConstants.moduleConfigs[3], 3));
         }
         case DEVBOT -> {
           drive =
               new Drive(
                   new GyroIOPigeon2(false),
-                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[0]),
-                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[1]),
-                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[2]),
-                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[3]));
+                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[0], 0),
+                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[1], 1),
+                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[2], 2),
+                  new ModuleIOSparkMax(DriveConstants.moduleConfigs[3], 3));
         }
         case SIMBOT -> {
           drive =
@@ -104,6 +135,8 @@ public class RobotContainer {
                   new ModuleIOSim(DriveConstants.moduleConfigs[1]),
                   new ModuleIOSim(DriveConstants.moduleConfigs[2]),
                   new ModuleIOSim(DriveConstants.moduleConfigs[3]));
+          new LimelightSim(VisionConstants.shooterCamera, LimelightSim.Config.limelight3AprilTags);
+          new LimelightSim(VisionConstants.intakeCamera, LimelightSim.Config.limelight3Notes);
         }
       }
     }
@@ -119,6 +152,25 @@ public class RobotContainer {
               new ModuleIO() {});
     }
 
+    // Vision reads every configured Limelight, except in replay where inputs come from the log
+    VisionIO[] visionIO = new VisionIO[VisionConstants.cameras.length];
+    for (int i = 0; i < visionIO.length; i++) {
+      visionIO[i] =
+          Constants.getMode() == Constants.Mode.REPLAY
+              ? new VisionIO() {}
+              : new VisionIOLimelight(i);
+    }
+    vision = new Vision(visionIO);
+    noteTracker =
+        new NoteTracker(
+            Constants.getMode() == Constants.Mode.REPLAY
+                ? new NoteDetectionIO() {}
+                : new NoteDetectionIOLimelight());
+    // Crops the shooter camera to the speaker tags, only with a camera to write the crop to
+    if (Constants.getMode() != Constants.Mode.REPLAY) {
+      new VisionThroughput(VisionConstants.shooterCamera);
+    }
+
     // Configure autos and buttons
     linkAutoCommands();
     configureButtonBindings(false);
@@ -204,10 +256,26 @@ public class RobotContainer {
             () -> slapperRestingPosition,
             slapperRestingPosition));
 
+    NamedCommands.registerCommand("shootAimed", aimedShootCommand());
+
     NamedCommands.registerCommand("intake", new PickUpPieceAuto(autoIntakeVoltage));
     NamedCommands.registerCommand("stopIntake", new StopIntake());
   }
 
+  /**
+   * Shoots into the speaker with the hood angle and flywheel speed from {@link
+   * RobotState#getAimingParameters()}. Does nothing if the speaker is out of range.
+   */
+  private Command aimedShootCommand() {
+    return new AutoShootSequence(
+            aimedHoodAngle,
+            aimedFlywheelSpeed,
+            angleRestingPosition,
+            () -> slapperRestingPosition,
+            slapperRestingPosition)
+        .onlyIf(() -> robotState.getAimingParameters().valid());
+  }
+
   /**
    * Use this method to define your button->command mappings. Buttons can be created by
    * instantiating a {@link GenericHID} or one of its subclasses ({@link Joystick} or {@link
@@ -242,6 +310,17 @@ public class RobotContainer {
 
     climberDown.whileTrue(climber.runLimitedVoltageCommand(-12));
 
+    // Aim the drive, hood and flywheel at the speaker from anywhere, then shoot. The heading is
+    // held until the shot is done, and nothing runs if the speaker is out of range.
+    aimedShot.onTrue(
+        new AutoTurnToGoal(() -> 0.0, false)
+            .raceWith(
+                new PrepareForShoot(
+                        aimedHoodAngle, aimedFlywheelSpeed, () -> slapperRestingPosition)
+                    .alongWith(new WaitUntilCommand(drive::atHeadingGoal))
+                    .andThen(aimedShootCommand()))
+            .onlyIf(() -> robotState.getAimingParameters().valid()));
+
     // driver.y().whileTrue(slapper.runVoltageCommand(-0.1));
     // driver.a().whileTrue(slapper.runVoltageCommand(0.1));
 
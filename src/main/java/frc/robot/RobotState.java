@@ -9,15 +9,24 @@ package frc.robot;
 
 import edu.wpi.first.math.*;
 import edu.wpi.first.math.geometry.*;
-import edu.wpi.first.math.interpolation.*;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.FieldConstants.Speaker;
+import frc.robot.subsystems.Shooter;
+import frc.robot.subsystems.drive.Drive;
 import frc.robot.subsystems.drive.DriveConstants;
+import frc.robot.subsystems.drive.HighRateOdometry;
+import frc.robot.util.AllianceFlipUtil;
+import frc.robot.util.LoggedTunableNumber;
+import frc.robot.util.PoseHistoryBuffer;
+import frc.robot.util.ShotMap;
 import frc.robot.util.swerve.ModuleLimits;
+import frc.robot.util.swerve.SwerveKinematicsSolver;
+import java.util.Optional;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
@@ -25,9 +34,39 @@ public class RobotState {
   public record OdometryObservation(
       SwerveDriveWheelPositions wheelPositions, Rotation2d gyroAngle, double timestamp) {}
 
-  public record VisionObservation(Pose2d visionPose, double timestamp) {}
+  public record VisionObservation(Pose2d visionPose, Matrix<N3, N1> stdDevs, double timestamp) {}
+
+  /**
+   * Where to aim for a speaker shot, compensated for the robot's velocity.
+   *
+   * @param driveHeading Heading that points the shooter at the virtual target.
+   * @param hoodAngle Hood angle in degrees, NaN if out of range.
+   * @param flywheelSpeed Flywheel speed in rotations per second, NaN if out of range.
+   * @param effectiveDistance Distance to the virtual target, in meters.
+   * @param timeOfFlight Time from release to reaching the speaker, in seconds.
+   * @param valid Whether the shot map has a shot for the effective distance.
+   */
+  public record AimingParameters(
+      Rotation2d driveHeading,
+      double hoodAngle,
+      double flywheelSpeed,
+      double effectiveDistance,
+      double timeOfFlight,
+      boolean valid) {}
 
   private static final double poseBufferSizeSeconds = 2.0;
+  private static final int poseBufferCapacity = 512; // Just over 2 seconds at 250 Hz
+
+  // Time from deciding to shoot until the note leaves the robot
+  private static final LoggedTunableNumber aimingLookaheadSecs =
+      new LoggedTunableNumber("RobotState/Aiming/LookaheadSecs", 0.1);
+  // Note time of flight is modeled as intercept + slope * distance
+  private static final LoggedTunableNumber timeOfFlightIntercept =
+      new LoggedTunableNumber("RobotState/Aiming/TimeOfFlightInterceptSecs", 0.05);
+  private static final LoggedTunableNumber timeOfFlightPerMeter =
+      new LoggedTunableNumber("RobotState/Aiming/TimeOfFlightSecsPerMeter", 0.1);
+  private static final int maxAimingIterations = 5;
+  private static final double aimingToleranceMeters = 0.001;
 
   private static RobotState instance;
 
@@ -38,13 +77,15 @@ public class RobotState {
 
   // Pose Estimation Members
   @AutoLogOutput private Pose2d odometryPose = new Pose2d();
-  @AutoLogOutput private Pose2d estimatedPose = new Pose2d();
-  private final TimeInterpolatableBuffer<Pose2d> poseBuffer =
-      TimeInterpolatableBuffer.createBuffer(poseBufferSizeSeconds);
+  // Volatile so getLatestPose can be called from other threads
+  @AutoLogOutput private volatile Pose2d estimatedPose = new Pose2d();
+  private final PoseHistoryBuffer poseBuffer = new PoseHistoryBuffer(poseBufferCapacity);
   private final Matrix<N3, N1> qStdDevs = new Matrix<>(Nat.N3(), Nat.N1());
   // Odometry
-  private final SwerveDriveKinematics kinematics;
-  private SwerveDriveWheelPositions lastWheelPositions =
+  private final SwerveKinematicsSolver kinematicsSolver =
+      new SwerveKinematicsSolver(DriveConstants.moduleTranslations);
+  private final Twist2d odometryTwist = new Twist2d();
+  private final SwerveDriveWheelPositions lastWheelPositions =
       new SwerveDriveWheelPositions(
           new SwerveModulePosition[] {
             new SwerveModulePosition(),
@@ -53,51 +94,176 @@ public class RobotState {
             new SwerveModulePosition()
           });
   private Rotation2d lastGyroAngle = new Rotation2d();
+  // Pose from the odometry thread at the last sample included in the estimate
+  private volatile Pose2d highRateOdometryReference = null;
   private Twist2d robotVelocity = new Twist2d();
   private Twist2d trajectoryVelocity = new Twist2d();
+  // Aiming, cleared whenever the pose or velocity changes and recalculated when anything else it
+  // depends on differs from when it was calculated
+  private final ShotMap.Shot aimingShot = new ShotMap.Shot();
+  private AimingParameters latestParameters = null;
+  private boolean latestParametersFlipped = false;
+  private boolean latestParametersAutonomous = false;
+  private double latestParametersLookahead = Double.NaN;
+  private double latestParametersIntercept = Double.NaN;
+  private double latestParametersPerMeter = Double.NaN;
 
   private RobotState() {
     for (int i = 0; i < 3; ++i) {
       qStdDevs.set(i, 0, Math.pow(DriveConstants.odometryStateStdDevs.get(i, 0), 2));
     }
-    kinematics = DriveConstants.kinematics;
   }
 
   /** Add odometry observation */
   public void addOdometryObservation(OdometryObservation observation) {
-    Twist2d twist = kinematics.toTwist2d(lastWheelPositions, observation.wheelPositions());
-    lastWheelPositions = observation.wheelPositions();
+    addOdometryObservation(
+        observation.wheelPositions(), observation.gyroAngle(), observation.timestamp());
+  }
+
+  /**
+   * Add odometry observation without wrapping it in an {@link OdometryObservation}. The wheel
+   * positions are copied, so the caller may reuse them.
+   */
+  public void addOdometryObservation(
+      SwerveDriveWheelPositions wheelPositions, Rotation2d gyroAngle, double timestamp) {
+    addOdometryObservation(wheelPositions, null, gyroAngle, timestamp);
+  }
+
+  /**
+   * Add odometry observation, solving the movement with weighted least squares so slipping modules
+   * can be ignored.
+   *
+   * @param moduleWeights Weight of each module, or null to weight every module equally.
+   */
+  public void addOdometryObservation(
+      SwerveDriveWheelPositions wheelPositions,
+      double[] moduleWeights,
+      Rotation2d gyroAngle,
+      double timestamp) {
+    kinematicsSolver.toTwist2d(
+        lastWheelPositions.positions, wheelPositions.positions, moduleWeights, odometryTwist);
+    for (int i = 0; i < lastWheelPositions.positions.length; i++) {
+      lastWheelPositions.positions[i].distanceMeters = wheelPositions.positions[i].distanceMeters;
+      lastWheelPositions.positions[i].angle = wheelPositions.positions[i].angle;
+    }
     // Check gyro connected
-    if (observation.gyroAngle != null) {
+    if (gyroAngle != null) {
       // Update dtheta for twist if gyro connected
-      twist =
-          new Twist2d(
-              twist.dx, twist.dy, observation.gyroAngle().minus(lastGyroAngle).getRadians());
-      lastGyroAngle = observation.gyroAngle();
+      odometryTwist.dtheta =
+          MathUtil.angleModulus(gyroAngle.getRadians() - lastGyroAngle.getRadians());
+      lastGyroAngle = gyroAngle;
     }
     // Add twist to odometry pose
-    odometryPose = odometryPose.exp(twist);
+    odometryPose = odometryPose.exp(odometryTwist);
     // Add pose to buffer at timestamp
-    poseBuffer.addSample(observation.timestamp(), odometryPose);
+    poseBuffer.addSample(timestamp, odometryPose);
     // Calculate diff from last odometry pose and add onto pose estimate
-    estimatedPose = estimatedPose.exp(twist);
+    estimatedPose = estimatedPose.exp(odometryTwist);
+    latestParameters = null;
   }
 
-  // The chance of this fully working is low
+  /**
+   * Fuses a vision pose into the estimate. The estimate at the time of the observation is corrected
+   * by a Kalman gain built from {@link #qStdDevs} and the observation's std devs, then the odometry
+   * since that time is replayed on top of the correction.
+   */
   public void addVisionObservation(VisionObservation observation) {
+    Logger.recordOutput("Limelight/SentPose", observation.visionPose());
     // If measurement is old enough to be outside the pose buffer's timespan, skip.
-    Logger.recordOutput("Limelight/SentPose", observation.visionPose);
+    if (poseBuffer.size() == 0
+        || poseBuffer.getOldestTimestamp() > observation.timestamp()
+        || poseBuffer.getLatestTimestamp() - poseBufferSizeSeconds > observation.timestamp()) {
+      return;
+    }
+    // Get odometry based pose at timestamp
+    var sample = poseBuffer.getPoseAt(observation.timestamp());
+    if (sample.isEmpty()) {
+      return;
+    }
+
+    // Odometry movement between the observation and now, in both directions
+    var sampleToOdometryTransform = new Transform2d(sample.get(), odometryPose);
+    var odometryToSampleTransform = new Transform2d(odometryPose, sample.get());
+    // Estimate at the time of the observation
+    Pose2d estimateAtTime = estimatedPose.plus(odometryToSampleTransform);
+
+    // Closed form Kalman gain for a continuous Kalman filter with A = 0 and C = I, using the
+    // odometry variances in qStdDevs and the measurement variances
+    double[] visionK = new double[3];
+    for (int i = 0; i < 3; ++i) {
+      double q = qStdDevs.get(i, 0);
+      double r = observation.stdDevs().get(i, 0) * observation.stdDevs().get(i, 0);
+      visionK[i] = q == 0.0 || Double.isInfinite(r) ? 0.0 : q / (q + Math.sqrt(q * r));
+    }
+    // Scale the difference between the estimate and the vision pose by the gain
+    Transform2d transform = new Transform2d(estimateAtTime, observation.visionPose());
+    Transform2d scaledTransform =
+        new Transform2d(
+            visionK[0] * transform.getX(),
+            visionK[1] * transform.getY(),
+            Rotation2d.fromRadians(visionK[2] * transform.getRotation().getRadians()));
 
-    estimatedPose =
-        new Pose2d(observation.visionPose.getTranslation(), estimatedPose.getRotation());
+    // Apply the correction at the time of the observation, then replay odometry to now
+    estimatedPose = estimateAtTime.plus(scaledTransform).plus(sampleToOdometryTransform);
+    latestParameters = null;
+  }
+
+  /**
+   * Returns std devs for a vision pose from its tags. Single tags that are far away or small in
+   * the image are trusted least, and every estimate is trusted less while the robot spins.
+   *
+   * @param averageTagArea Average tag area, in percent of the image.
+   * @param angularVelocity Robot angular velocity when the image was taken, in rad/s.
+   * @param stdDevFactor Multiplier for the camera that took the image.
+   * @param megaTag2 Whether the pose came from MegaTag2, which takes its heading from the gyro.
+   */
+  public static Matrix<N3, N1> getVisionStdDevs(
+      int tagCount,
+      double averageTagDistance,
+      double averageTagArea,
+      double angularVelocity,
+      double stdDevFactor,
+      boolean megaTag2) {
+    double scale =
+        Math.pow(averageTagDistance, 2.0)
+            / Math.max(tagCount, 1)
+            * Math.max(1.0, VisionConstants.minTagArea / averageTagArea)
+            * (1.0 + VisionConstants.angularVelocityStdDevCoefficient * Math.abs(angularVelocity))
+            * stdDevFactor;
+    double xyStdDev = VisionConstants.xyStdDevCoefficient * scale;
+    double thetaStdDev =
+        megaTag2
+            ? VisionConstants.megaTag2ThetaStdDev
+            : VisionConstants.thetaStdDevCoefficient * scale;
+    return VecBuilder.fill(xyStdDev, xyStdDev, thetaStdDev);
+  }
+
+  /**
+   * Moves the estimated translation directly to a vision pose, keeping the estimated rotation. Use
+   * to seed the estimate, not for continuous updates.
+   */
+  public void seedVisionTranslation(Pose2d visionPose) {
+    Logger.recordOutput("Limelight/SentPose", visionPose);
+    estimatedPose = new Pose2d(visionPose.getTranslation(), estimatedPose.getRotation());
+    latestParameters = null;
+  }
+
+  /**
+   * Sets the pose {@link HighRateOdometry} had integrated at the last odometry sample added to the
+   * estimate. Used by {@link #getLatestPose()}.
+   */
+  public void setHighRateOdometryReference(Pose2d odometryThreadPose) {
+    highRateOdometryReference = odometryThreadPose;
   }
 
   public void addVelocityData(Twist2d robotVelocity) {
     this.robotVelocity = robotVelocity;
+    latestParameters = null;
   }
 
   public void addTrajectoryVelocityData(Twist2d robotVelocity) {
     trajectoryVelocity = robotVelocity;
+    latestParameters = null;
   }
 
   // when adding other systems, you can make the limits change when things happen
@@ -114,6 +280,9 @@ public class RobotState {
     estimatedPose = initialPose;
     odometryPose = initialPose;
     poseBuffer.clear();
+    highRateOdometryReference = null;
+    Drive.highRateOdometry.reset();
+    latestParameters = null;
   }
 
   @AutoLogOutput(key = "RobotState/FieldVelocity")
@@ -129,6 +298,35 @@ public class RobotState {
     return estimatedPose;
   }
 
+  /**
+   * Returns the estimated pose at a past timestamp, by undoing the odometry since then. Empty if
+   * the timestamp is older than the pose history.
+   */
+  public Optional<Pose2d> getEstimatedPoseAt(double timestamp) {
+    if (poseBuffer.size() == 0 || timestamp < poseBuffer.getOldestTimestamp()) {
+      return Optional.empty();
+    }
+    return poseBuffer
+        .getPoseAt(timestamp)
+        .map(sample -> estimatedPose.plus(new Transform2d(odometryPose, sample)));
+  }
+
+  /**
+   * Returns the estimated pose plus any movement the odometry thread has integrated since the last
+   * main loop. Falls back to {@link #getEstimatedPose()} when high rate odometry is not running.
+   * Safe to call from any thread. The estimate may already include a correction the reference does
+   * not if the main loop is partway through a cycle.
+   */
+  public Pose2d getLatestPose() {
+    Pose2d estimate = estimatedPose;
+    Pose2d reference = highRateOdometryReference;
+    HighRateOdometry.Snapshot snapshot = Drive.highRateOdometry.getLatest();
+    if (reference == null || snapshot == null) {
+      return estimate;
+    }
+    return estimate.transformBy(snapshot.pose().minus(reference));
+  }
+
   /**
    * Predicts what our pose will be in the future. Allows separate translation and rotation
    * lookaheads to account for varying latencies in the different measurements.
@@ -147,6 +345,76 @@ public class RobotState {
                 Rotation2d.fromRadians(velocity.dtheta * rotationLookaheadS)));
   }
 
+  /**
+   * Returns where to aim to score in the speaker while moving. The note leaves with the robot's
+   * field velocity, so it is aimed at a virtual target offset against that velocity by the time of
+   * flight. Time of flight depends on the distance to the virtual target, so the two are iterated
+   * until the distance settles. Aiming starts from the pose predicted for when the note leaves the
+   * robot. The result is cached until the pose, velocity, alliance, robot mode or aiming tunables
+   * change.
+   */
+  public AimingParameters getAimingParameters() {
+    boolean flipped = AllianceFlipUtil.shouldFlip();
+    boolean autonomous = DriverStation.isAutonomousEnabled();
+    double lookahead = aimingLookaheadSecs.get();
+    double intercept = timeOfFlightIntercept.get();
+    double perMeter = timeOfFlightPerMeter.get();
+    if (latestParameters != null
+        && flipped == latestParametersFlipped
+        && autonomous == latestParametersAutonomous
+        && lookahead == latestParametersLookahead
+        && intercept == latestParametersIntercept
+        && perMeter == latestParametersPerMeter) {
+      return latestParameters;
+    }
+    latestParametersFlipped = flipped;
+    latestParametersAutonomous = autonomous;
+    latestParametersLookahead = lookahead;
+    latestParametersIntercept = intercept;
+    latestParametersPerMeter = perMeter;
+
+    Translation2d target = AllianceFlipUtil.apply(Speaker.centerSpeakerOpening.toTranslation2d());
+    Translation2d robot = getPredictedPose(lookahead, lookahead).getTranslation();
+    Twist2d velocity = fieldVelocity();
+
+    double virtualX = target.getX();
+    double virtualY = target.getY();
+    double distance = Math.hypot(virtualX - robot.getX(), virtualY - robot.getY());
+    double timeOfFlight = 0.0;
+    for (int i = 0; i < maxAimingIterations; i++) {
+      timeOfFlight = intercept + perMeter * distance;
+      virtualX = target.getX() - velocity.dx * timeOfFlight;
+      virtualY = target.getY() - velocity.dy * timeOfFlight;
+      double newDistance = Math.hypot(virtualX - robot.getX(), virtualY - robot.getY());
+      boolean converged = Math.abs(newDistance - distance) < aimingToleranceMeters;
+      distance = newDistance;
+      if (converged) break;
+    }
+
+    boolean valid = Shooter.getAngleAndSpeed(distance, aimingShot);
+    latestParameters =
+        new AimingParameters(
+            new Rotation2d(virtualX - robot.getX(), virtualY - robot.getY()),
+            aimingShot.angle,
+            aimingShot.speed,
+            distance,
+            timeOfFlight,
+            valid);
+    Logger.recordOutput("RobotState/Aiming/VirtualTarget", new Translation2d(virtualX, virtualY));
+    Logger.recordOutput("RobotState/Aiming/DriveHeading", latestParameters.driveHeading());
+    Logger.recordOutput("RobotState/Aiming/HoodAngle", latestParameters.hoodAngle());
+    Logger.recordOutput("RobotState/Aiming/FlywheelSpeed", latestParameters.flywheelSpeed());
+    Logger.recordOutput("RobotState/Aiming/EffectiveDistance", distance);
+    Logger.recordOutput("RobotState/Aiming/TimeOfFlight", timeOfFlight);
+    return latestParameters;
+  }
+
+  /** Returns how many odometry samples arrived out of order and were left out of the history. */
+  @AutoLogOutput(key = "RobotState/StalePoseSamples")
+  public long getStalePoseSampleCount() {
+    return poseBuffer.getStaleSampleCount();
+  }
+
   @AutoLogOutput(key = "RobotState/OdometryPose")
   public Pose2d getOdometryPose() {
     return odometryPose;
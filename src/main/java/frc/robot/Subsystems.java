@@ -14,6 +14,8 @@ import frc.robot.subsystems.LimelightShooter;
 import frc.robot.subsystems.Shooter;
 import frc.robot.subsystems.Slapper;
 import frc.robot.subsystems.drive.Drive;
+import frc.robot.subsystems.vision.NoteTracker;
+import frc.robot.subsystems.vision.Vision;
 
 /**
  * The Subsystems class represents the collection of subsystems used in the robot. It provides
@@ -34,4 +36,6 @@ public final class Subsystems {
   public static final Slapper slapper = new Slapper(); // My slapper
 
   public static Drive drive = null;
+  public static Vision vision = null;
+  public static NoteTracker noteTracker = null; // Notes seen by the intake
 }
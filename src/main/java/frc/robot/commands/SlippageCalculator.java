@@ -49,7 +49,13 @@ public class SlippageCalculator extends Command {
       Logger.recordOutput(
           "Slippage/WheelVelocity" + i, Math.abs(moduleState[i].speedMetersPerSecond));
     }
-    data.add(moduleState);
+    // Drive updates the measured states in place, so keep a copy
+    SwerveModuleState[] moduleStateCopy = new SwerveModuleState[moduleState.length];
+    for (int i = 0; i < moduleState.length; i++) {
+      moduleStateCopy[i] =
+          new SwerveModuleState(moduleState[i].speedMetersPerSecond, moduleState[i].angle);
+    }
+    data.add(moduleStateCopy);
   }
 
   // Called once the command ends or is interrupted.
@@ -3,13 +3,8 @@ package frc.robot.commands.drivetrain;
 import static frc.robot.Subsystems.*;
 
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Transform2d;
-import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj2.command.Command;
-import frc.robot.FieldConstants.Speaker;
 import frc.robot.RobotState;
-import frc.robot.util.AllianceFlipUtil;
 import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
 
@@ -17,27 +12,32 @@ public class AutoTurnToGoal extends Command {
 
   protected Supplier<Rotation2d> angleSupplier;
   private DoubleSupplier offset;
+  private final boolean finishAtGoal;
 
   public AutoTurnToGoal(DoubleSupplier offset) {
+    this(offset, true);
+  }
+
+  /**
+   * @param offset Heading offset from the goal in degrees.
+   * @param finishAtGoal Whether to end once at the heading. Otherwise the heading is held until the
+   *     command is interrupted, and callers wait on {@code drive.atHeadingGoal()} themselves.
+   */
+  public AutoTurnToGoal(DoubleSupplier offset, boolean finishAtGoal) {
     this.offset = offset;
+    this.finishAtGoal = finishAtGoal;
     addRequirements(drive);
   }
 
   @Override
   public void initialize() {
-    Translation2d speakerLocation =
-        AllianceFlipUtil.apply(Speaker.centerSpeakerOpening.toTranslation2d());
+    // Aim at the target compensated for robot motion, which is the speaker itself when stopped
     this.angleSupplier =
-        () -> {
-          Transform2d translation =
-              new Transform2d(
-                  speakerLocation.getX() - RobotState.getInstance().getEstimatedPose().getX(),
-                  speakerLocation.getY() - RobotState.getInstance().getEstimatedPose().getY(),
-                  new Rotation2d());
-          return new Rotation2d(
-              Math.atan2(translation.getY(), translation.getX())
-                  + Units.degreesToRadians(offset.getAsDouble()));
-        };
+        () ->
+            RobotState.getInstance()
+                .getAimingParameters()
+                .driveHeading()
+                .plus(Rotation2d.fromDegrees(offset.getAsDouble()));
     drive.setHeadingGoal(angleSupplier);
   }
 
@@ -51,6 +51,6 @@ public class AutoTurnToGoal extends Command {
 
   @Override
   public boolean isFinished() {
-    return drive.atHeadingGoal();
+    return finishAtGoal && drive.atHeadingGoal();
   }
 }
@@ -6,15 +6,35 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.DriverStation.Alliance;
 import edu.wpi.first.wpilibj2.command.Command;
-import frc.robot.LimelightHelpers;
+import frc.robot.Constants.VisionConstants;
 import frc.robot.RobotState;
+import frc.robot.subsystems.vision.Vision;
+import frc.robot.subsystems.vision.Vision.Frame;
+import frc.robot.subsystems.vision.VisionFilter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import org.littletonrobotics.junction.Logger;
 
+/**
+ * Fuses every MegaTag2 frame received by {@link Vision} and accepted by {@link VisionFilter} into
+ * {@link RobotState}, each with std devs from its tags, the robot's spin and the camera.
+ */
 public class SeedPoseEstimation extends Command {
-  double previousSeedTime = -10;
+  private static final Comparator<Frame> oldestFirst =
+      Comparator.comparingDouble(frame -> frame.estimate().timestampSeconds);
+
+  private final VisionFilter filter = VisionFilter.createDefault();
+  private final List<Frame> frames = new ArrayList<>();
+  private final String[] poseKeys = new String[VisionConstants.cameras.length];
+  private final String[] acceptedKeys = new String[VisionConstants.cameras.length];
 
   public SeedPoseEstimation() {
     addRequirements(limelightShooter);
+    for (int i = 0; i < VisionConstants.cameras.length; i++) {
+      poseKeys[i] = "Limelight/" + VisionConstants.cameras[i].name() + "/Pose";
+      acceptedKeys[i] = "Limelight/" + VisionConstants.cameras[i].name() + "/Accepted";
+    }
   }
 
   @Override
@@ -33,45 +53,39 @@ public class SeedPoseEstimation extends Command {
       rot = rot.plus(Rotation2d.fromDegrees(-180));
     }
 
-    boolean rejectFrontLLUpdate = false;
+    double angularVelocity = RobotState.getInstance().fieldVelocity().dtheta;
+    Logger.recordOutput("Limelight/rotVel", angularVelocity);
 
-    LimelightHelpers.SetRobotOrientation(
-        limelightShooter.LIMELIGHT,
-        rot.getDegrees(),
-        RobotState.getInstance().fieldVelocity().dtheta,
-        0,
-        0,
-        0,
-        0);
-    // LimelightHelpers.SetRobotOrientation(limelightShooter.LIMELIGHT, rot.getDegrees(), 0, 0, 0,
-    // 0, 0);
-    LimelightHelpers.PoseEstimate poseEstimate_FrontLL =
-        LimelightHelpers.getBotPoseEstimate_wpiBlue_MegaTag2(limelightShooter.LIMELIGHT);
+    vision.setRobotOrientation(rot.getDegrees(), Math.toDegrees(angularVelocity));
 
-    if (RobotState.getInstance().fieldVelocity().dtheta
-        > 720) // if our angular velocity is greater than 720 degrees per second, ignore vision
-    // updates
-    {
-      rejectFrontLLUpdate = true;
-    }
+    // Fuse every frame since the last cycle oldest first, so each correction is replayed through
+    // the ones after it
+    frames.clear();
+    frames.addAll(vision.getFrames());
+    frames.sort(oldestFirst);
+    for (int i = 0; i < frames.size(); i++) {
+      int camera = frames.get(i).camera();
+      var estimate = frames.get(i).estimate();
+      Logger.recordOutput(poseKeys[camera], estimate.pose);
 
-    Logger.recordOutput("Limelight/rotVel", RobotState.getInstance().fieldVelocity().dtheta);
-    Logger.recordOutput("Limelight/Pose", poseEstimate_FrontLL.pose);
+      boolean accepted = filter.accept(frames.get(i), angularVelocity);
+      Logger.recordOutput(acceptedKeys[camera], accepted);
+      if (!accepted) continue;
 
-    try {
-      if (!rejectFrontLLUpdate
-          && !(poseEstimate_FrontLL.pose.getX() == 0)
-          && !(poseEstimate_FrontLL.pose.getY() == 0)
-          && poseEstimate_FrontLL.timestampSeconds - previousSeedTime > 0.25) {
-        RobotState.getInstance()
-            .addVisionObservation(
-                new RobotState.VisionObservation(
-                    poseEstimate_FrontLL.pose, poseEstimate_FrontLL.timestampSeconds));
-        previousSeedTime = poseEstimate_FrontLL.timestampSeconds;
-      }
-    } catch (Exception e) {
-      // System.out.println(e);
+      RobotState.getInstance()
+          .addVisionObservation(
+              new RobotState.VisionObservation(
+                  estimate.pose,
+                  RobotState.getVisionStdDevs(
+                      estimate.tagCount,
+                      estimate.avgTagDist,
+                      estimate.avgTagArea,
+                      angularVelocity,
+                      VisionConstants.cameras[camera].stdDevFactor(),
+                      true),
+                  estimate.timestampSeconds));
     }
+    filter.logCounters();
   }
 
   @Override
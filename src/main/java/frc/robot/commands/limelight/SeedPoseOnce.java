@@ -58,10 +58,7 @@ public class SeedPoseOnce extends Command {
       if (!rejectFrontLLUpdate
           && !(poseEstimate_FrontLL.pose.getX() == 0)
           && !(poseEstimate_FrontLL.pose.getY() == 0)) {
-        RobotState.getInstance()
-            .addVisionObservation(
-                new RobotState.VisionObservation(
-                    poseEstimate_FrontLL.pose, poseEstimate_FrontLL.timestampSeconds));
+        RobotState.getInstance().seedVisionTranslation(poseEstimate_FrontLL.pose);
       }
     } catch (Exception e) {
       // System.out.println(e);
@@ -21,6 +21,7 @@ import edu.wpi.first.wpilibj.DutyCycleEncoder;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 import org.littletonrobotics.junction.Logger;
 
 /**
@@ -40,6 +41,7 @@ public class Actuation extends SubsystemBase {
   private double desiredPos;
 
   private PIDController posPID = new PIDController(1.5, 0, 0.01);
+
   // private PIDController paddingPID = new PIDController(1.5, 0, 0.0);
 
   /** Creates a new Actuation. */
@@ -267,29 +269,34 @@ public class Actuation extends SubsystemBase {
 
   @Override
   public void periodic() {
-    Logger.recordOutput(
-        "Actuation/EncoderAngle",
-        (throughboreEncoder.getAbsolutePosition() / actuationTicksPerDegree) - actuationOffset);
-    Logger.recordOutput(
-        "Actuation/MotorAngle",
-        actuationMotor.getPosition().getValueAsDouble() / actuationInternalTicksPerDegree);
-
-    // This method will be called once per scheduler run
-    SmartDashboard.putBoolean("isPosControl", isPositionControl);
-    if (isPositionControl) {
-      runMotorToPosition();
-    }
+    LoopProfiler.push("Actuation");
+    try {
+      Logger.recordOutput(
+          "Actuation/EncoderAngle",
+          (throughboreEncoder.getAbsolutePosition() / actuationTicksPerDegree) - actuationOffset);
+      Logger.recordOutput(
+          "Actuation/MotorAngle",
+          actuationMotor.getPosition().getValueAsDouble() / actuationInternalTicksPerDegree);
+
+      // This method will be called once per scheduler run
+      SmartDashboard.putBoolean("isPosControl", isPositionControl);
+      if (isPositionControl) {
+        runMotorToPosition();
+      }
 
-    SmartDashboard.putNumber(
-        "actuation pos",
-        (throughboreEncoder.getAbsolutePosition() / actuationTicksPerDegree) - actuationOffset);
-    // System.out.println(getLimitSwitch());
-    // System.out.println(actuationMotor.getPosition().getValueAsDouble() /
-    // actuationTicksPerDegree);
-    // System.out.println(actuationMotor.getMotorVoltage());
-
-    SmartDashboard.putNumber(
-        "Actuation Angle",
-        actuationMotor.getPosition().getValueAsDouble() / actuationInternalTicksPerDegree);
+      SmartDashboard.putNumber(
+          "actuation pos",
+          (throughboreEncoder.getAbsolutePosition() / actuationTicksPerDegree) - actuationOffset);
+      // System.out.println(getLimitSwitch());
+      // System.out.println(actuationMotor.getPosition().getValueAsDouble() /
+      // actuationTicksPerDegree);
+      // System.out.println(actuationMotor.getMotorVoltage());
+
+      SmartDashboard.putNumber(
+          "Actuation Angle",
+          actuationMotor.getPosition().getValueAsDouble() / actuationInternalTicksPerDegree);
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
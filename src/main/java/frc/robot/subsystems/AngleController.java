@@ -13,6 +13,7 @@ import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.wpilibj.DigitalInput;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 import java.util.function.DoubleSupplier;
 import org.littletonrobotics.junction.Logger;
 
@@ -258,12 +259,18 @@ public class AngleController extends SubsystemBase {
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
-    // System.out.println(getAngle());
-    Logger.recordOutput(
-        "AngleController/Angle", angleMotor.getPosition().getValueAsDouble() / angleTicksPerDegree);
-    // SmartDashboard.putNumber(
-    //     "Angle Controller", angleMotor.getPosition().getValueAsDouble() / angleTicksPerDegree);
-    // SmartDashboard.putNumber("Angle Current", getCurrentDraw());
+    LoopProfiler.push("AngleController");
+    try {
+      // This method will be called once per scheduler run
+      // System.out.println(getAngle());
+      Logger.recordOutput(
+          "AngleController/Angle",
+          angleMotor.getPosition().getValueAsDouble() / angleTicksPerDegree);
+      // SmartDashboard.putNumber(
+      //     "Angle Controller", angleMotor.getPosition().getValueAsDouble() / angleTicksPerDegree);
+      // SmartDashboard.putNumber("Angle Current", getCurrentDraw());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
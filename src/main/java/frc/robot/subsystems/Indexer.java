@@ -13,6 +13,7 @@ import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 import java.util.function.DoubleSupplier;
 
 /**
@@ -195,10 +196,15 @@ public class Indexer extends SubsystemBase {
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
-    // System.out.println(pdp.getCurrent(16));
-    // System.out.println(indexerMotor.getDeviceTemp().getValueAsDouble());
-    // System.out.println("Indexer Speed: " + indexerMotor.getVelocity());
-    // SmartDashboard.putNumber("Indexer Speed", indexerMotor.getVelocity().getValueAsDouble());
+    LoopProfiler.push("Indexer");
+    try {
+      // This method will be called once per scheduler run
+      // System.out.println(pdp.getCurrent(16));
+      // System.out.println(indexerMotor.getDeviceTemp().getValueAsDouble());
+      // System.out.println("Indexer Speed: " + indexerMotor.getVelocity());
+      // SmartDashboard.putNumber("Indexer Speed", indexerMotor.getVelocity().getValueAsDouble());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
@@ -16,6 +16,7 @@ import edu.wpi.first.wpilibj.DigitalInput;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 
 /**
  * The Intake class represents the intake subsystem of the robot. It controls the intake motor and
@@ -305,16 +306,21 @@ public class Intake extends SubsystemBase {
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
-    // System.out.println(intakeMotor.getDeviceTemp().toString());
-    // System.out.println(pdp.getCurrent(16));
-    // System.out.println(getNoteSensor());
-    // if (getNoteSensor()) {
-    //   System.out.println("detect");
-    // }
-    // SmartDashboard.putBoolean("Left Intake Note Sensor", getLeftNoteSensor());
-    // SmartDashboard.putBoolean("Right Intake Note Sensor", getRightNoteSensor());
-
-    // SmartDashboard.putNumber("Intake Speed", intakeMotor.getVelocity().getValueAsDouble());
+    LoopProfiler.push("Intake");
+    try {
+      // This method will be called once per scheduler run
+      // System.out.println(intakeMotor.getDeviceTemp().toString());
+      // System.out.println(pdp.getCurrent(16));
+      // System.out.println(getNoteSensor());
+      // if (getNoteSensor()) {
+      //   System.out.println("detect");
+      // }
+      // SmartDashboard.putBoolean("Left Intake Note Sensor", getLeftNoteSensor());
+      // SmartDashboard.putBoolean("Right Intake Note Sensor", getRightNoteSensor());
+
+      // SmartDashboard.putNumber("Intake Speed", intakeMotor.getVelocity().getValueAsDouble());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
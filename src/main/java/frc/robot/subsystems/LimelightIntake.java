@@ -4,10 +4,15 @@
 
 package frc.robot.subsystems;
 
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.DoubleSubscriber;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringSubscriber;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 
 /**
  * The `LimelightIntake` class represents a subsystem that controls the Limelight camera and its
@@ -18,6 +23,21 @@ public class LimelightIntake extends SubsystemBase {
   public final String LIMELIGHT = "limelight-intake";
   NetworkTable table = NetworkTableInstance.getDefault().getTable(LIMELIGHT);
 
+  // Created once, so getters don't look up entries by name every cycle
+  private final DoubleSubscriber txSubscriber = table.getDoubleTopic("tx").subscribe(0.0);
+  private final DoubleSubscriber tySubscriber = table.getDoubleTopic("ty").subscribe(0.0);
+  private final DoubleSubscriber taSubscriber = table.getDoubleTopic("ta").subscribe(0.0);
+  private final DoubleSubscriber tsSubscriber = table.getDoubleTopic("ts").subscribe(0.0);
+  private final DoubleSubscriber tidSubscriber = table.getDoubleTopic("tid").subscribe(0.0);
+  private final DoubleSubscriber tlSubscriber = table.getDoubleTopic("tl").subscribe(0.0);
+  private final DoubleSubscriber clSubscriber = table.getDoubleTopic("cl").subscribe(0.0);
+  private final StringSubscriber tclassSubscriber = table.getStringTopic("tclass").subscribe("");
+  private final DoubleArraySubscriber botposeSubscriber =
+      table.getDoubleArrayTopic("botpose").subscribe(new double[6]);
+  private final DoublePublisher camModePublisher = table.getDoubleTopic("camMode").publish();
+  private final DoublePublisher ledModePublisher = table.getDoubleTopic("ledMode").publish();
+  private final DoublePublisher pipelinePublisher = table.getDoubleTopic("pipeline").publish();
+
   public static enum LightMode {
     DEFAULT(0),
     OFF(1),
@@ -49,13 +69,13 @@ public class LimelightIntake extends SubsystemBase {
 
   /** Switches the camera to active and turns on the lights */
   public void turnOnLimelight() {
-    NetworkTableInstance.getDefault().getTable(LIMELIGHT).getEntry("camMode").setNumber(0);
+    camModePublisher.set(0);
     setLights(LightMode.DEFAULT);
   }
 
   /** Switches the camera to inactive and turns off the lights */
   public void turnOffLimelight() {
-    NetworkTableInstance.getDefault().getTable(LIMELIGHT).getEntry("camMode").setNumber(1);
+    camModePublisher.set(1);
     setLights(LightMode.OFF);
   }
 
@@ -80,10 +100,7 @@ public class LimelightIntake extends SubsystemBase {
    * @param lightMode LightMode enum value
    */
   public void setLights(LightMode lightMode) {
-    NetworkTableInstance.getDefault()
-        .getTable(LIMELIGHT)
-        .getEntry("ledMode")
-        .setNumber(lightMode.lightNum);
+    ledModePublisher.set(lightMode.lightNum);
   }
 
   /**
@@ -107,10 +124,7 @@ public class LimelightIntake extends SubsystemBase {
    * @param pipeline Pipeline enum value
    */
   public void setLimelightPipeline(Pipeline pipeline) {
-    NetworkTableInstance.getDefault()
-        .getTable(LIMELIGHT)
-        .getEntry("pipeline")
-        .setNumber(pipeline.pipelineNum);
+    pipelinePublisher.set(pipeline.pipelineNum);
   }
 
   public Command prepareForNote() {
@@ -134,7 +148,7 @@ public class LimelightIntake extends SubsystemBase {
    * @return Id of Apriltag
    */
   public double getApriltagID() {
-    double id = NetworkTableInstance.getDefault().getTable(LIMELIGHT).getEntry("tid").getDouble(0);
+    double id = tidSubscriber.get();
     // SmartDashboard.putNumber("Apriltag id", id);
     return id;
     // return 1;
@@ -173,8 +187,7 @@ public class LimelightIntake extends SubsystemBase {
 
   /** Prints the name of piece that the Limelight detects */
   public void printPieceName() {
-    System.out.println(
-        NetworkTableInstance.getDefault().getTable(LIMELIGHT).getEntry("tclass").getString(null));
+    System.out.println(tclassSubscriber.get());
   }
 
   /**
@@ -183,31 +196,41 @@ public class LimelightIntake extends SubsystemBase {
    * @return An array of doubles in the order of X, Y, Z, Roll, Pitch, Yaw
    */
   public double[] getRobotPose() {
-    double[] pose = {0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
-    try {
-      pose =
-          NetworkTableInstance.getDefault()
-              .getTable(LIMELIGHT)
-              .getEntry("botpose")
-              .getDoubleArray(pose);
-      // SmartDashboard.putNumber("PoseX", pose[0]);
-      // SmartDashboard.putNumber("PoseY", pose[1]);
-      // SmartDashboard.putNumber("PoseZ", pose[2]);
-      // SmartDashboard.putNumber("PosePitch", pose[3]);
-      // SmartDashboard.putNumber("PoseYaw", pose[4]);
-      // SmartDashboard.putNumber("PoseRoll", pose[5]);
-    } catch (ArrayIndexOutOfBoundsException e) {
-      // System.out.println("No 3D April tag detected");
-    }
-    return pose;
-    // return null;
+    return botposeSubscriber.get();
+  }
+
+  /**
+   * Returns when the latest target values were published, in FPGA seconds.
+   *
+   * @return Time of the last tx update
+   */
+  public double getLatestTimestamp() {
+    return txSubscriber.getLastChange() / 1.0e6;
+  }
+
+  /**
+   * Returns how long before {@link #getLatestTimestamp()} the latest frame was captured.
+   *
+   * @return Pipeline plus capture latency, in seconds
+   */
+  public double getLatencySecs() {
+    return (tlSubscriber.get() + clSubscriber.get()) / 1000.0;
+  }
+
+  /**
+   * Returns when the latest robot pose was published, in FPGA seconds.
+   *
+   * @return Time of the last botpose update
+   */
+  public double getRobotPoseTimestamp() {
+    return botposeSubscriber.getLastChange() / 1.0e6;
   }
 
   /**
    * @return X position of the object (degrees)
    */
-  public Double getTX() {
-    double tX = table.getEntry("tx").getDouble(0);
+  public double getTX() {
+    double tX = txSubscriber.get();
     return (tX != 0) ? tX : Double.NaN;
     // return 1;
   }
@@ -215,8 +238,8 @@ public class LimelightIntake extends SubsystemBase {
   /**
    * @return Y position of the object (degrees)
    */
-  public Double getTY() {
-    double tY = table.getEntry("ty").getDouble(0);
+  public double getTY() {
+    double tY = tySubscriber.get();
     return (tY != 0) ? tY : Double.NaN;
     // return 1;
   }
@@ -224,8 +247,8 @@ public class LimelightIntake extends SubsystemBase {
   /**
    * @return Area of the screen the object takes up
    */
-  public Double getTA() {
-    double tA = table.getEntry("ta").getDouble(0);
+  public double getTA() {
+    double tA = taSubscriber.get();
     return (tA != 0) ? tA : Double.NaN;
     // return 1;
   }
@@ -233,19 +256,24 @@ public class LimelightIntake extends SubsystemBase {
   /**
    * @return Skew (rotation) of the object
    */
-  public Double getTS() {
-    double tS = table.getEntry("ts").getDouble(0);
+  public double getTS() {
+    double tS = tsSubscriber.get();
     return (tS != 0) ? tS : Double.NaN;
     // return 1;
   }
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
-    // double[] pose = getRobotPose();
-    // System.out.println("X: " + pose[0]);
-    // System.out.println("Y: " + pose[1]);
-    // System.out.println("Distance: " + getDistanceFromGoal());
-    // System.out.println("TX: " + getTX());
+    LoopProfiler.push("LimelightIntake");
+    try {
+      // This method will be called once per scheduler run
+      // double[] pose = getRobotPose();
+      // System.out.println("X: " + pose[0]);
+      // System.out.println("Y: " + pose[1]);
+      // System.out.println("Distance: " + getDistanceFromGoal());
+      // System.out.println("TX: " + getTX());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
@@ -4,10 +4,14 @@
 
 package frc.robot.subsystems;
 
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.DoubleSubscriber;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.util.LoopProfiler;
 
 /**
  * The `LimelightShooter` class represents a subsystem that interacts with the Limelight camera for
@@ -18,6 +22,18 @@ public class LimelightShooter extends SubsystemBase {
   public final String LIMELIGHT = "limelight-shooter";
   NetworkTable table = NetworkTableInstance.getDefault().getTable(LIMELIGHT);
 
+  // Created once, so getters don't look up entries by name every cycle
+  private final DoubleSubscriber txSubscriber = table.getDoubleTopic("tx").subscribe(0.0);
+  private final DoubleSubscriber tySubscriber = table.getDoubleTopic("ty").subscribe(0.0);
+  private final DoubleSubscriber taSubscriber = table.getDoubleTopic("ta").subscribe(0.0);
+  private final DoubleSubscriber tsSubscriber = table.getDoubleTopic("ts").subscribe(0.0);
+  private final DoubleSubscriber tidSubscriber = table.getDoubleTopic("tid").subscribe(0.0);
+  private final DoubleArraySubscriber botposeSubscriber =
+      table.getDoubleArrayTopic("botpose").subscribe(new double[6]);
+  private final DoublePublisher camModePublisher = table.getDoubleTopic("camMode").publish();
+  private final DoublePublisher ledModePublisher = table.getDoubleTopic("ledMode").publish();
+  private final DoublePublisher pipelinePublisher = table.getDoubleTopic("pipeline").publish();
+
   public static enum LightMode {
     DEFAULT(0),
     OFF(1),
@@ -48,13 +64,13 @@ public class LimelightShooter extends SubsystemBase {
 
   /** Switches the camera to active and turns on the lights */
   public void turnOnLimelight() {
-    table.getEntry("camMode").setNumber(0);
+    camModePublisher.set(0);
     setLights(LightMode.DEFAULT);
   }
 
   /** Switches the camera to inactive and turns off the lights */
   public void turnOffLimelight() {
-    table.getEntry("camMode").setNumber(1);
+    camModePublisher.set(1);
     setLights(LightMode.OFF);
   }
 
@@ -79,7 +95,7 @@ public class LimelightShooter extends SubsystemBase {
    * @param lightMode LightMode enum value
    */
   public void setLights(LightMode lightMode) {
-    table.getEntry("ledMode").setNumber(lightMode.lightNum);
+    ledModePublisher.set(lightMode.lightNum);
   }
 
   /**
@@ -103,7 +119,7 @@ public class LimelightShooter extends SubsystemBase {
    * @param pipeline Pipeline enum value
    */
   public void setLimelightPipeline(Pipeline pipeline) {
-    table.getEntry("pipeline").setNumber(pipeline.pipelineNum);
+    pipelinePublisher.set(pipeline.pipelineNum);
   }
 
   /**
@@ -111,8 +127,8 @@ public class LimelightShooter extends SubsystemBase {
    *
    * @return Id of Apriltag
    */
-  public Double getApriltagID() {
-    double id = table.getEntry("tid").getDouble(0);
+  public double getApriltagID() {
+    double id = tidSubscriber.get();
     return (id != 0) ? id : Double.NaN;
     // return 1;
   }
@@ -123,31 +139,32 @@ public class LimelightShooter extends SubsystemBase {
    * @return An array of doubles in the order of X, Y, Z, Roll, Pitch, Yaw
    */
   public double[] getRobotPose() {
-    double[] pose = {0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
-    try {
-      pose =
-          NetworkTableInstance.getDefault()
-              .getTable(LIMELIGHT)
-              .getEntry("botpose")
-              .getDoubleArray(pose);
-      // SmartDashboard.putNumber("PoseX", pose[0]);
-      // SmartDashboard.putNumber("PoseY", pose[1]);
-      // SmartDashboard.putNumber("PoseZ", pose[2]);
-      // SmartDashboard.putNumber("PosePitch", pose[3]);
-      // SmartDashboard.putNumber("PoseYaw", pose[4]);
-      // SmartDashboard.putNumber("PoseRoll", pose[5]);
-    } catch (ArrayIndexOutOfBoundsException e) {
-      // System.out.println("No 3D April tag detected");
-    }
-    return pose;
-    // return null;
+    return botposeSubscriber.get();
+  }
+
+  /**
+   * Returns when the latest target values were published, in FPGA seconds.
+   *
+   * @return Time of the last tx update
+   */
+  public double getLatestTimestamp() {
+    return txSubscriber.getLastChange() / 1.0e6;
+  }
+
+  /**
+   * Returns when the latest robot pose was published, in FPGA seconds.
+   *
+   * @return Time of the last botpose update
+   */
+  public double getRobotPoseTimestamp() {
+    return botposeSubscriber.getLastChange() / 1.0e6;
   }
 
   /**
    * @return X position of the object (degrees)
    */
-  public Double getTX() {
-    double tX = table.getEntry("tx").getDouble(0);
+  public double getTX() {
+    double tX = txSubscriber.get();
     return (tX != 0) ? tX : Double.NaN;
     // return 1;
   }
@@ -155,8 +172,8 @@ public class LimelightShooter extends SubsystemBase {
   /**
    * @return Y position of the object (degrees)
    */
-  public Double getTY() {
-    double tY = table.getEntry("ty").getDouble(0);
+  public double getTY() {
+    double tY = tySubscriber.get();
     return (tY != 0) ? tY : Double.NaN;
     // return 1;
   }
@@ -164,8 +181,8 @@ public class LimelightShooter extends SubsystemBase {
   /**
    * @return Area of the screen the object takes up
    */
-  public Double getTA() {
-    double tA = table.getEntry("ta").getDouble(0);
+  public double getTA() {
+    double tA = taSubscriber.get();
     return (tA != 0) ? tA : Double.NaN;
     // return 1;
   }
@@ -173,28 +190,33 @@ public class LimelightShooter extends SubsystemBase {
   /**
    * @return Skew (rotation) of the object
    */
-  public Double getTS() {
-    double tS = table.getEntry("ts").getDouble(0);
+  public double getTS() {
+    double tS = tsSubscriber.get();
     return (tS != 0) ? tS : Double.NaN;
     // return 1;
   }
 
   @Override
   public void periodic() {
-    // This method will be called once per scheduler run
-    // double[] pose = getRobotPose();
-    // System.out.println("X: " + pose[0]);
-    // System.out.println("Y: " + pose[1]);
-    // System.out.println("Distance: " + getDistanceFromGoal());
-    // System.out.println("TX: " + getTX());
-    // System.out.println("TY: " + getTY());
-    // System.out.println("start");
-    // for (double d : getRobotPose()) {
-    //   System.out.println(d);
-    // }
-    // System.out.println("end");
-
-    // SmartDashboard.putNumber("tX", getTX());
-    // SmartDashboard.putNumber("tY", getTY());
+    LoopProfiler.push("LimelightShooter");
+    try {
+      // This method will be called once per scheduler run
+      // double[] pose = getRobotPose();
+      // System.out.println("X: " + pose[0]);
+      // System.out.println("Y: " + pose[1]);
+      // System.out.println("Distance: " + getDistanceFromGoal());
+      // System.out.println("TX: " + getTX());
+      // System.out.println("TY: " + getTY());
+      // System.out.println("start");
+      // for (double d : getRobotPose()) {
+      //   System.out.println(d);
+      // }
+      // System.out.println("end");
+
+      // SmartDashboard.putNumber("tX", getTX());
+      // SmartDashboard.putNumber("tY", getTY());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
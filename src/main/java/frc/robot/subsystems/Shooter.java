@@ -4,17 +4,34 @@
 
 package frc.robot.subsystems;
 
+import static frc.robot.Constants.ShooterConstants.*;
+
 import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
 import com.ctre.phoenix6.controls.NeutralOut;
 import com.ctre.phoenix6.controls.VelocityVoltage;
+import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.TalonFX;
 import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.controller.LinearQuadraticRegulator;
+import edu.wpi.first.math.estimator.KalmanFilter;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.LinearSystemLoop;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.DigitalInput;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SequentialCommandGroup;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Constants;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.ShotMap;
 import java.util.function.DoubleSupplier;
 import org.littletonrobotics.junction.Logger;
 
@@ -25,7 +42,7 @@ import org.littletonrobotics.junction.Logger;
  */
 public class Shooter extends SubsystemBase {
   // Distance, Angle, Speed
-  private static final Double[][] distanceMap = {
+  public static final double[][] distanceMap = {
     {1.4, 1.0, 65.0},
     {1.6, 3.0, 65.0},
     {1.8, 6.0, 65.0},
@@ -53,6 +70,14 @@ public class Shooter extends SubsystemBase {
     {4.8, 31.75, 65.0},
     {5.0, 33.0, 65.0}
   };
+  // Shots a little past the last row still use it
+  public static final double maxShotDistance = 5.1;
+  private static final ShotMap shotMap =
+      new ShotMap(
+          distanceMap, maxShotDistance, ShotMap.Interpolation.LINEAR, ShotMap.Lookup.UNIFORM_GRID);
+
+  // Time for a note to clear the flywheels, after which a shot without a dip is done
+  private static final double shotClearSecs = 0.5;
 
   private TalonFX leftShooterMotor = new TalonFX(15);
   private TalonFX rightShooterMotor = new TalonFX(16);
@@ -64,6 +89,20 @@ public class Shooter extends SubsystemBase {
   // VoltageOut sitControl;
   NeutralOut stopMode;
 
+  // State space control, used by runShooter when enabled
+  private final VoltageOut voltageControl = new VoltageOut(0.0);
+  private final LinearSystemLoop<N1, N1, N1> leftLoop = createFlywheelLoop();
+  private final LinearSystemLoop<N1, N1, N1> rightLoop = createFlywheelLoop();
+  private boolean stateSpaceEnabled = stateSpaceFlywheel;
+  private boolean stateSpaceActive = false;
+
+  // Shot metrics, in rotations per second and seconds
+  private double goalVelocity = 0.0;
+  private double spinUpStartTime = Double.NaN;
+  private double shotTime = Double.NaN;
+  private double shotMinVelocity = 0.0;
+  private boolean lastNoteSensor = false;
+
   /** Creates a new Intake. */
   public Shooter() {
     initMotors();
@@ -270,13 +309,60 @@ public class Shooter extends SubsystemBase {
     };
   }
 
+  /** Creates a velocity loop for one flywheel, in radians per second, from the motor model */
+  private static LinearSystemLoop<N1, N1, N1> createFlywheelLoop() {
+    LinearSystem<N1, N1, N1> plant =
+        LinearSystemId.createFlywheelSystem(
+            DCMotor.getFalcon500(1), flywheelMoiKgMetersSquared, flywheelGearing);
+    KalmanFilter<N1, N1, N1> observer =
+        new KalmanFilter<>(
+            Nat.N1(),
+            Nat.N1(),
+            plant,
+            VecBuilder.fill(Units.rotationsToRadians(flywheelModelStdDev)),
+            VecBuilder.fill(Units.rotationsToRadians(flywheelEncoderStdDev)),
+            Constants.loopPeriodSecs);
+    LinearQuadraticRegulator<N1, N1, N1> controller =
+        new LinearQuadraticRegulator<>(
+            plant,
+            VecBuilder.fill(Units.rotationsToRadians(flywheelVelocityTolerance)),
+            VecBuilder.fill(maxFlywheelVoltage),
+            Constants.loopPeriodSecs);
+    return new LinearSystemLoop<>(
+        plant, controller, observer, maxFlywheelVoltage, Constants.loopPeriodSecs);
+  }
+
+  /**
+   * Choose between the Talon velocity PID and the state space loop for {@link #runShooter}. Turning
+   * the state space loop off while it runs hands the current goal to the Talon right away.
+   *
+   * @param enabled whether to use the state space loop
+   */
+  public void setStateSpaceEnabled(boolean enabled) {
+    stateSpaceEnabled = enabled;
+    if (!enabled && stateSpaceActive) {
+      runShooter(goalVelocity, velocityControl.Acceleration);
+    }
+  }
+
   /**
    * Run the intake motor at a given velocity and acceleration
    *
    * @param velocity in rotations per second
-   * @param acceleration in rotations per second squared
+   * @param acceleration in rotations per second squared, ignored by the state space loop
    */
   public void runShooter(double velocity, double acceleration) {
+    setGoal(velocity);
+    if (stateSpaceEnabled) {
+      if (!stateSpaceActive) {
+        leftLoop.reset(VecBuilder.fill(Units.rotationsToRadians(getLeftVelocity())));
+        rightLoop.reset(VecBuilder.fill(Units.rotationsToRadians(getRightVelocity())));
+        stateSpaceActive = true;
+      }
+      // The loops run in periodic
+      return;
+    }
+    stateSpaceActive = false;
     leftShooterMotor.setControl(
         velocityControl.withVelocity(velocity).withAcceleration(acceleration));
 
@@ -291,6 +377,8 @@ public class Shooter extends SubsystemBase {
    * @param acceleration in rotations per second squared
    */
   public void runShooterSlow(double velocity, double acceleration) {
+    setGoal(velocity);
+    stateSpaceActive = false;
     leftShooterMotor.setControl(
         slowVelocityControl.withVelocity(velocity).withAcceleration(acceleration));
 
@@ -313,6 +401,8 @@ public class Shooter extends SubsystemBase {
 
       @Override
       public void execute() {
+        setGoal(0.0);
+        stateSpaceActive = false;
         leftShooterMotor.set(speed);
         rightShooterMotor.set(speed);
       }
@@ -334,6 +424,8 @@ public class Shooter extends SubsystemBase {
   // }
 
   public void stopMotors() {
+    setGoal(0.0);
+    stateSpaceActive = false;
     leftShooterMotor.setControl(stopMode);
     rightShooterMotor.setControl(stopMode);
   }
@@ -401,47 +493,12 @@ public class Shooter extends SubsystemBase {
    * Get the angle and speed for a given distance
    *
    * @param distance in meters
-   * @return a Double array with the angle and speed
+   * @param shot written with the angle in degrees and speed in rotations per second, or NaN if the
+   *     distance is out of range
+   * @return whether there is a shot for the distance
    */
-  public Double[] getAngleAndSpeed(Double distance) {
-    Double[] emptyVal = {Double.NaN, Double.NaN, Double.NaN};
-    if (distance.equals(Double.NaN)) return emptyVal;
-
-    for (int i = 0; i < distanceMap.length; i++) {
-      double curDis = distanceMap[i][0];
-
-      if (distance > curDis) {
-        continue;
-      }
-
-      try {
-        double prevDis = distanceMap[i - 1][0];
-        prevDis = Math.abs(distance - prevDis);
-        curDis = Math.abs(curDis - distance);
-
-        double totalDis = prevDis + curDis;
-        curDis = curDis / totalDis;
-        prevDis = prevDis / totalDis;
-
-        Double[] arr = {
-          distance,
-          distanceMap[i][1] * curDis + distanceMap[i - 1][1] * prevDis,
-          distanceMap[i][2] * curDis + distanceMap[i - 1][2] * prevDis
-        };
-
-        // return (curDis < prevDis) ? distanceMap[i] : distanceMap[i-1];
-        return arr;
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // for (double j : distanceMap[i]) {
-        //   System.out.println(j);
-        // }
-        return distanceMap[i];
-      }
-    }
-    if (distance < distanceMap[distanceMap.length - 1][0] + 0.1) {
-      return distanceMap[distanceMap.length - 1];
-    }
-    return emptyVal;
+  public static boolean getAngleAndSpeed(double distance, ShotMap.Shot shot) {
+    return shotMap.get(distance, shot);
   }
 
   /**
@@ -539,25 +596,88 @@ public class Shooter extends SubsystemBase {
     return rightShooterMotor.getVelocity().getValueAsDouble();
   }
 
+  /** Sets the goal used by the state space loop and the shot metrics */
+  private void setGoal(double velocity) {
+    if (velocity > 0.0 && Math.abs(velocity - goalVelocity) > flywheelVelocityTolerance) {
+      spinUpStartTime = Timer.getFPGATimestamp();
+    }
+    goalVelocity = velocity;
+  }
+
+  /**
+   * Log how long the flywheels take to reach the goal and, for every note that passes the exit
+   * sensor, how far the slower flywheel dips and how long it takes to get back to speed
+   */
+  private void updateShotMetrics() {
+    double now = Timer.getFPGATimestamp();
+    double velocity = Math.min(getLeftVelocity(), getRightVelocity());
+    boolean noteSensor = getNoteSensor();
+    boolean noteEntered = noteSensor && !lastNoteSensor;
+    lastNoteSensor = noteSensor;
+    if (goalVelocity <= 0.0) {
+      spinUpStartTime = Double.NaN;
+      shotTime = Double.NaN;
+      return;
+    }
+    boolean atSpeed = velocity >= goalVelocity - flywheelVelocityTolerance;
+
+    if (!Double.isNaN(spinUpStartTime) && atSpeed) {
+      Logger.recordOutput("Shooter/Metrics/TimeToSpeedSecs", now - spinUpStartTime);
+      spinUpStartTime = Double.NaN;
+    }
+
+    if (noteEntered) {
+      shotTime = now;
+      shotMinVelocity = velocity;
+    } else if (!Double.isNaN(shotTime)) {
+      shotMinVelocity = Math.min(shotMinVelocity, velocity);
+      boolean dipped = shotMinVelocity < goalVelocity - flywheelVelocityTolerance;
+      if ((dipped && atSpeed) || (!dipped && now - shotTime > shotClearSecs)) {
+        Logger.recordOutput("Shooter/Metrics/RecoveryDipRps", goalVelocity - shotMinVelocity);
+        Logger.recordOutput("Shooter/Metrics/RecoveryTimeSecs", dipped ? now - shotTime : 0.0);
+        shotTime = Double.NaN;
+      }
+    }
+  }
+
   @Override
   public void periodic() {
-    Logger.recordOutput("Shooter/LeftVelocity", getLeftVelocity());
-    Logger.recordOutput("Shooter/RightVelocity", getRightVelocity());
-    // This method will be called once per scheduler run
-    // System.out.println(pdp.getCurrent(16));
-    // System.out.println("Right Velocity:" + rightShooterMotor.getVelocity().getValueAsDouble());
-    // System.out.println("Left Velocity:" + leftShooterMotor.getVelocity().getValueAsDouble());
-    // SmartDashboard.putBoolean("Shooter line break", getNoteSensor());
-    // SmartDashboard.putNumber("Left Shooter Speed",
-    // leftShooterMotor.getVelocity().getValueAsDouble());
-    // SmartDashboard.putNumber("Right Shooter Speed",
-    // rightShooterMotor.getVelocity().getValueAsDouble());
-    // boolean leftShooterSpeed = leftShooterMotor.getVelocity().getValueAsDouble() >= 50;
-    // boolean rightShooterSpeed = rightShooterMotor.getVelocity().getValueAsDouble() >= 50;
-    // SmartDashboard.putBoolean("Is At Speed", leftShooterSpeed && rightShooterSpeed);
-    // SmartDashboard.putBoolean("RSpeed", rightShooterSpeed);
-    // SmartDashboard.putBoolean("LSpeed", leftShooterSpeed);
-    // SmartDashboard.putNumber("RPos", rightShooterMotor.getPosition().getValueAsDouble());
-    // SmartDashboard.putNumber("RVel", rightShooterMotor.getVelocity().getValueAsDouble());
+    LoopProfiler.push("Shooter");
+    try {
+      Logger.recordOutput("Shooter/LeftVelocity", getLeftVelocity());
+      Logger.recordOutput("Shooter/RightVelocity", getRightVelocity());
+      if (stateSpaceActive) {
+        double goalRadPerSec = Units.rotationsToRadians(goalVelocity);
+        leftLoop.setNextR(VecBuilder.fill(goalRadPerSec));
+        leftLoop.correct(VecBuilder.fill(Units.rotationsToRadians(getLeftVelocity())));
+        leftLoop.predict(Constants.loopPeriodSecs);
+        rightLoop.setNextR(VecBuilder.fill(goalRadPerSec));
+        rightLoop.correct(VecBuilder.fill(Units.rotationsToRadians(getRightVelocity())));
+        rightLoop.predict(Constants.loopPeriodSecs);
+        leftShooterMotor.setControl(voltageControl.withOutput(leftLoop.getU(0)));
+        rightShooterMotor.setControl(voltageControl.withOutput(rightLoop.getU(0)));
+      }
+      Logger.recordOutput("Shooter/StateSpaceActive", stateSpaceActive);
+      Logger.recordOutput("Shooter/GoalVelocity", goalVelocity);
+      updateShotMetrics();
+      // This method will be called once per scheduler run
+      // System.out.println(pdp.getCurrent(16));
+      // System.out.println("Right Velocity:" + rightShooterMotor.getVelocity().getValueAsDouble());
+      // System.out.println("Left Velocity:" + leftShooterMotor.getVelocity().getValueAsDouble());
+      // SmartDashboard.putBoolean("Shooter line break", getNoteSensor());
+      // SmartDashboard.putNumber("Left Shooter Speed",
+      // leftShooterMotor.getVelocity().getValueAsDouble());
+      // SmartDashboard.putNumber("Right Shooter Speed",
+      // rightShooterMotor.getVelocity().getValueAsDouble());
+      // boolean leftShooterSpeed = leftShooterMotor.getVelocity().getValueAsDouble() >= 50;
+      // boolean rightShooterSpeed = rightShooterMotor.getVelocity().getValueAsDouble() >= 50;
+      // SmartDashboard.putBoolean("Is At Speed", leftShooterSpeed && rightShooterSpeed);
+      // SmartDashboard.putBoolean("RSpeed", rightShooterSpeed);
+      // SmartDashboard.putBoolean("LSpeed", leftShooterSpeed);
+      // SmartDashboard.putNumber("RPos", rightShooterMotor.getPosition().getValueAsDouble());
+      // SmartDashboard.putNumber("RVel", rightShooterMotor.getVelocity().getValueAsDouble());
+    } finally {
+      LoopProfiler.pop();
+    }
   }
 }
@@ -17,6 +17,7 @@ import edu.wpi.first.wpilibj.DutyCycleEncoder;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.WaitUntilCommand;
+import frc.robot.util.LoopProfiler;
 import java.util.function.DoubleSupplier;
 import org.littletonrobotics.junction.Logger;
 
@@ -226,13 +227,18 @@ public class Slapper extends SubsystemBase {
 
   @Override
   public void periodic() {
-    if (isPositionControl) {
-      runMotorToPosition();
+    LoopProfiler.push("Slapper");
+    try {
+      if (isPositionControl) {
+        runMotorToPosition();
+      }
+      // SmartDashboard.putNumber("Slapper pos", getPosition());
+      // SmartDashboard.putNumber("Desired Slapper pos", desiredPos);
+      // SmartDashboard.putNumber("Encoder", throughboreEncoder.getAbsolutePosition());
+      Logger.recordOutput("Slapper/SlapperPos", getPosition());
+      Logger.recordOutput("Slapper/EncoderPos", throughboreEncoder.getAbsolutePosition());
+    } finally {
+      LoopProfiler.pop();
     }
-    // SmartDashboard.putNumber("Slapper pos", getPosition());
-    // SmartDashboard.putNumber("Desired Slapper pos", desiredPos);
-    // SmartDashboard.putNumber("Encoder", throughboreEncoder.getAbsolutePosition());
-    Logger.recordOutput("Slapper/SlapperPos", getPosition());
-    Logger.recordOutput("Slapper/EncoderPos", throughboreEncoder.getAbsolutePosition());
   }
 }
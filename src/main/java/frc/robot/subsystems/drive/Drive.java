@@ -14,6 +14,7 @@ import com.pathplanner.lib.path.PathPlannerTrajectory.State;
 import com.pathplanner.lib.util.HolonomicPathFollowerConfig;
 import com.pathplanner.lib.util.PIDConstants;
 import com.pathplanner.lib.util.ReplanningConfig;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
@@ -33,11 +34,12 @@ import frc.robot.subsystems.drive.controllers.SimpleDriveController;
 import frc.robot.subsystems.drive.controllers.TeleopDriveController;
 import frc.robot.util.EqualsUtil;
 import frc.robot.util.LoggedTunableNumber;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.swerve.ModuleLimits;
+import frc.robot.util.swerve.SwerveKinematicsSolver;
 import frc.robot.util.swerve.SwerveSetpoint;
 import frc.robot.util.swerve.SwerveSetpointGenerator;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
@@ -51,6 +53,9 @@ public class Drive extends SubsystemBase {
       new LoggedTunableNumber("Drive/CoastWaitTimeSeconds", 0.5);
   private static final LoggedTunableNumber coastMetersPerSecThreshold =
       new LoggedTunableNumber("Drive/CoastMetersPerSecThreshold", 0.05);
+  private static final LoggedTunableNumber slipResidualMetersPerSec =
+      new LoggedTunableNumber("Drive/SlipResidualMetersPerSec", 0.75);
+  private static final Rotation2d halfTurn = new Rotation2d(Math.PI);
 
   public enum DriveMode {
     /** Driving with input from driver joysticks. (Default) */
@@ -84,7 +89,8 @@ public class Drive extends SubsystemBase {
   }
 
   public static final Lock odometryLock = new ReentrantLock();
-  public static final Queue<Double> timestampQueue = new ArrayBlockingQueue<>(20);
+  public static final OdometryFrames odometryFrames = new OdometryFrames();
+  public static final HighRateOdometry highRateOdometry = new HighRateOdometry();
 
   private final OdometryTimestampInputsAutoLogged odometryTimestampInputs =
       new OdometryTimestampInputsAutoLogged();
@@ -93,9 +99,31 @@ public class Drive extends SubsystemBase {
   private final Module[] modules = new Module[4];
 
   // Store previous positions and time for filtering odometry data
-  private SwerveDriveWheelPositions lastPositions = null;
+  private final SwerveModulePosition[] lastPositions = newModulePositions();
+  private boolean hasLastPositions = false;
   private double lastTime = 0.0;
 
+  // Weight of each module in the current odometry sample, zero if it is slipping
+  private final double[] moduleWeights = new double[] {1.0, 1.0, 1.0, 1.0};
+  private final Twist2d slipTwist = new Twist2d();
+
+  // Refilled every cycle, so only copies are logged
+  private final boolean[] slipFlags = new boolean[4];
+  private final double[] maxResiduals = new double[4];
+
+  // Reused every cycle so periodic does not allocate
+  private final double[] simTimestamps = new double[1];
+  private final SwerveDriveWheelPositions wheelPositions =
+      new SwerveDriveWheelPositions(newModulePositions());
+  private final SwerveModuleState[] measuredStates = newModuleStates();
+  private final ChassisSpeeds measuredSpeeds = new ChassisSpeeds();
+  private boolean measuredStatesValid = false;
+  private final Twist2d measuredVelocity = new Twist2d();
+  private final SwerveModuleState[] optimizedSetpointStates = newModuleStates();
+  private final SwerveModuleState[] optimizedSetpointTorques = newModuleStates();
+  private final SwerveKinematicsSolver kinematicsSolver =
+      new SwerveKinematicsSolver(DriveConstants.moduleTranslations);
+
   /** Active drive mode. */
   private DriveMode currentDriveMode = DriveMode.TELEOP;
 
@@ -149,190 +177,306 @@ public class Drive extends SubsystemBase {
   }
 
   public void periodic() {
-    // Update & process inputs
-    odometryLock.lock();
-    // Read timestamps from odometry thread and fake sim timestamps
-    odometryTimestampInputs.timestamps =
-        timestampQueue.stream().mapToDouble(Double::valueOf).toArray();
-    if (odometryTimestampInputs.timestamps.length == 0) {
-      odometryTimestampInputs.timestamps = new double[] {Timer.getFPGATimestamp()};
-    }
-    timestampQueue.clear();
-    Logger.processInputs("Drive/OdometryTimestamps", odometryTimestampInputs);
-    // Read inputs from gyro
-    gyroIO.updateInputs(gyroInputs);
-    Logger.processInputs("Drive/Gyro", gyroInputs);
-    // Read inputs from modules
-    Arrays.stream(modules).forEach(Module::updateInputs);
-    odometryLock.unlock();
-
-    ModuleLimits currentModuleLimits = RobotState.getInstance().getModuleLimits();
-
-    // Calculate the min odometry position updates across all modules
-    int minOdometryUpdates =
-        IntStream.of(
-                odometryTimestampInputs.timestamps.length,
-                Arrays.stream(modules)
-                    .mapToInt(module -> module.getModulePositions().length)
-                    .min()
-                    .orElse(0))
-            .min()
-            .orElse(0);
-    if (gyroInputs.connected) {
-      minOdometryUpdates = Math.min(gyroInputs.odometryYawPositions.length, minOdometryUpdates);
-    }
-    // Pass odometry data to robot state
-    for (int i = 0; i < minOdometryUpdates; i++) {
-      int odometryIndex = i;
-      Rotation2d yaw = gyroInputs.connected ? gyroInputs.odometryYawPositions[i] : null;
-      // Get all four swerve module positions at that odometry update
-      // and store in SwerveDriveWheelPositions object
-      SwerveDriveWheelPositions wheelPositions =
-          new SwerveDriveWheelPositions(
-              Arrays.stream(modules)
-                  .map(module -> module.getModulePositions()[odometryIndex])
-                  .toArray(SwerveModulePosition[]::new));
-      // Filtering based on delta wheel positions
-      boolean includeMeasurement = true;
-      if (lastPositions != null) {
-        double dt = odometryTimestampInputs.timestamps[i] - lastTime;
+    LoopProfiler.push("Drive");
+    try {
+      // Update & process inputs
+      odometryLock.lock();
+      long lockStart = System.nanoTime();
+      // Take every frame published by the odometry thread so gyro and modules read the same samples
+      odometryFrames.takeSnapshot();
+      // Read timestamps from odometry thread and fake sim timestamps
+      odometryTimestampInputs.timestamps =
+          odometryFrames.getColumn(OdometryFrameBuffer.timestampIndex);
+      if (odometryTimestampInputs.timestamps.length == 0) {
+        simTimestamps[0] = Timer.getFPGATimestamp();
+        odometryTimestampInputs.timestamps = simTimestamps;
+      }
+      Logger.processInputs("Drive/OdometryTimestamps", odometryTimestampInputs);
+      // Read inputs from gyro
+      gyroIO.updateInputs(gyroInputs);
+      Logger.processInputs("Drive/Gyro", gyroInputs);
+      // Read inputs from modules
+      for (Module module : modules) {
+        module.updateInputs();
+      }
+      measuredStatesValid = false;
+      OdometryThreadStats.recordLockHold((System.nanoTime() - lockStart) / 1.0e9);
+      odometryLock.unlock();
+      OdometryThreadStats.logAll();
+      Logger.recordOutput("Drive/OdometryThread/StaleFrames", odometryFrames.getStaleFrameCount());
+
+      ModuleLimits currentModuleLimits = RobotState.getInstance().getModuleLimits();
+
+      // Odometry frames keep every signal aligned, so this only differs from the number of
+      // timestamps when replaying logs recorded before frames were used
+      int minOdometryUpdates = odometryTimestampInputs.timestamps.length;
+      for (Module module : modules) {
+        minOdometryUpdates = Math.min(module.getOdometryPositionCount(), minOdometryUpdates);
+      }
+      if (gyroInputs.connected) {
+        minOdometryUpdates = Math.min(gyroInputs.odometryYawPositions.length, minOdometryUpdates);
+      }
+      // Pass odometry data to robot state
+      int lastIncludedFrame = -1;
+      for (int j = 0; j < modules.length; j++) {
+        slipFlags[j] = false;
+        maxResiduals[j] = 0.0;
+      }
+      for (int i = 0; i < minOdometryUpdates; i++) {
+        Rotation2d yaw = gyroInputs.connected ? gyroInputs.odometryYawPositions[i] : null;
+        // Get all four swerve module positions at that odometry update
+        for (int j = 0; j < modules.length; j++) {
+          modules[j].getOdometryPosition(i, wheelPositions.positions[j]);
+        }
+        // Filtering based on delta wheel positions
+        boolean includeMeasurement = true;
         for (int j = 0; j < modules.length; j++) {
-          double velocity =
-              (wheelPositions.positions[j].distanceMeters
-                      - lastPositions.positions[j].distanceMeters)
-                  / dt;
-          double omega =
-              wheelPositions.positions[j].angle.minus(lastPositions.positions[j].angle).getRadians()
-                  / dt;
-          // Check if delta is too large
-          if (Math.abs(omega) > currentModuleLimits.maxSteeringVelocity() * 5.0
-              || Math.abs(velocity) > currentModuleLimits.maxDriveVelocity() * 5.0) {
-            includeMeasurement = false;
-            break;
+          moduleWeights[j] = 1.0;
+        }
+        if (hasLastPositions) {
+          double dt = odometryTimestampInputs.timestamps[i] - lastTime;
+          for (int j = 0; j < modules.length; j++) {
+            double velocity =
+                (wheelPositions.positions[j].distanceMeters - lastPositions[j].distanceMeters) / dt;
+            double omega =
+                MathUtil.angleModulus(
+                        wheelPositions.positions[j].angle.getRadians()
+                            - lastPositions[j].angle.getRadians())
+                    / dt;
+            // Check if delta is too large
+            if (Math.abs(omega) > currentModuleLimits.maxSteeringVelocity() * 5.0
+                || Math.abs(velocity) > currentModuleLimits.maxDriveVelocity() * 5.0) {
+              if (!DriveConstants.slipTolerantOdometry) {
+                includeMeasurement = false;
+                break;
+              }
+              // Only ignore this module
+              moduleWeights[j] = 0.0;
+            }
           }
+          if (DriveConstants.slipTolerantOdometry) {
+            includeMeasurement = rejectSlippingModules(dt);
+          }
+        }
+        // If delta isn't too large we can include the measurement.
+        if (includeMeasurement) {
+          for (int j = 0; j < modules.length; j++) {
+            lastPositions[j].distanceMeters = wheelPositions.positions[j].distanceMeters;
+            lastPositions[j].angle = wheelPositions.positions[j].angle;
+          }
+          hasLastPositions = true;
+          RobotState.getInstance()
+              .addOdometryObservation(
+                  wheelPositions, moduleWeights, yaw, odometryTimestampInputs.timestamps[i]);
+          lastTime = odometryTimestampInputs.timestamps[i];
+          lastIncludedFrame = i;
         }
       }
-      // If delta isn't too large we can include the measurement.
-      if (includeMeasurement) {
-        lastPositions = wheelPositions;
+      Logger.recordOutput("Drive/Odometry/SlipFlags", slipFlags.clone());
+      Logger.recordOutput("Drive/Odometry/MaxResidualMetersPerSec", maxResiduals.clone());
+      // Line up the odometry thread's pose with the estimate (frames only exist on a real robot)
+      if (DriveConstants.highRateOdometry
+          && lastIncludedFrame >= 0
+          && lastIncludedFrame < odometryFrames.getSnapshotSize()
+          && highRateOdometry.isAfterReset(
+              odometryFrames.get(lastIncludedFrame, OdometryFrameBuffer.timestampIndex))) {
         RobotState.getInstance()
-            .addOdometryObservation(
-                new RobotState.OdometryObservation(
-                    wheelPositions, yaw, odometryTimestampInputs.timestamps[i]));
-        lastTime = odometryTimestampInputs.timestamps[i];
+            .setHighRateOdometryReference(
+                new Pose2d(
+                    odometryFrames.get(lastIncludedFrame, OdometryFrameBuffer.odometryXIndex),
+                    odometryFrames.get(lastIncludedFrame, OdometryFrameBuffer.odometryYIndex),
+                    new Rotation2d(
+                        odometryFrames.get(
+                            lastIncludedFrame, OdometryFrameBuffer.odometryThetaIndex))));
       }
-    }
 
-    // Update current velocities use gyro when possible
-    ChassisSpeeds robotRelativeVelocity = getSpeeds();
-    robotRelativeVelocity.omegaRadiansPerSecond =
-        gyroInputs.connected
-            ? gyroInputs.yawVelocityRadPerSec
-            : robotRelativeVelocity.omegaRadiansPerSecond;
-    RobotState.getInstance()
-        .addVelocityData(
-            new Twist2d(
-                robotRelativeVelocity.vxMetersPerSecond,
-                robotRelativeVelocity.vyMetersPerSecond,
-                robotRelativeVelocity.omegaRadiansPerSecond));
-
-    // Update brake mode
-    // Reset movement timer if moved
-    if (Arrays.stream(modules)
-        .anyMatch(
-            module ->
-                Math.abs(module.getVelocityMetersPerSec()) > coastMetersPerSecThreshold.get())) {
-      lastMovementTimer.reset();
-    }
-    // if (DriverStation.isEnabled() && !lastEnabled) {
-    //   coastRequest = CoastRequest.AUTOMATIC;
-    // }
-
-    lastEnabled = DriverStation.isEnabled();
-    switch (coastRequest) {
-      case AUTOMATIC -> {
-        if (DriverStation.isEnabled()) {
+      // Update current velocities use gyro when possible
+      updateMeasuredStates();
+      measuredVelocity.dx = measuredSpeeds.vxMetersPerSecond;
+      measuredVelocity.dy = measuredSpeeds.vyMetersPerSecond;
+      measuredVelocity.dtheta =
+          gyroInputs.connected
+              ? gyroInputs.yawVelocityRadPerSec
+              : measuredSpeeds.omegaRadiansPerSecond;
+      RobotState.getInstance().addVelocityData(measuredVelocity);
+
+      // Update brake mode
+      // Reset movement timer if moved
+      for (Module module : modules) {
+        if (Math.abs(module.getVelocityMetersPerSec()) > coastMetersPerSecThreshold.get()) {
+          lastMovementTimer.reset();
+          break;
+        }
+      }
+      // if (DriverStation.isEnabled() && !lastEnabled) {
+      //   coastRequest = CoastRequest.AUTOMATIC;
+      // }
+
+      lastEnabled = DriverStation.isEnabled();
+      switch (coastRequest) {
+        case AUTOMATIC -> {
+          if (DriverStation.isEnabled()) {
+            setBrakeMode(true);
+          } else if (lastMovementTimer.hasElapsed(coastWaitTime.get())) {
+            setBrakeMode(false);
+          }
+        }
+        case ALWAYS_BRAKE -> {
           setBrakeMode(true);
-        } else if (lastMovementTimer.hasElapsed(coastWaitTime.get())) {
+        }
+        case ALWAYS_COAST -> {
           setBrakeMode(false);
         }
       }
-      case ALWAYS_BRAKE -> {
-        setBrakeMode(true);
-      }
-      case ALWAYS_COAST -> {
-        setBrakeMode(false);
+
+      // Run drive based on current mode
+      ChassisSpeeds teleopSpeeds = teleopDriveController.update();
+      switch (currentDriveMode) {
+        case TELEOP -> {
+          // Plain teleop drive
+          desiredSpeeds = teleopSpeeds;
+          // Add auto aim if present
+          if (headingController != null) {
+            desiredSpeeds.omegaRadiansPerSecond = headingController.update();
+          }
+        }
+        case AUTO -> {
+          // Run auto drive with drive input
+          desiredSpeeds = autoDriveController.update();
+        }
+        case AUTO_ALIGN -> {
+          // Run auto align with drive input
+          desiredSpeeds = autoAlignController.update();
+        }
+        case CHARACTERIZATION -> {
+          // Run characterization
+          for (Module module : modules) {
+            module.runCharacterization(0.0, characterizationInput);
+          }
+        }
+        case WHEEL_RADIUS_CHARACTERIZATION -> {
+          desiredSpeeds = new ChassisSpeeds(0, 0, characterizationInput);
+        }
+        case SIMPLE -> {
+          desiredSpeeds = simpleDriveController.update();
+        }
+        default -> {}
       }
-    }
 
-    // Run drive based on current mode
-    ChassisSpeeds teleopSpeeds = teleopDriveController.update();
-    switch (currentDriveMode) {
-      case TELEOP -> {
-        // Plain teleop drive
-        desiredSpeeds = teleopSpeeds;
-        // Add auto aim if present
-        if (headingController != null) {
-          desiredSpeeds.omegaRadiansPerSecond = headingController.update();
+      // Run modules
+      if (currentDriveMode != DriveMode.CHARACTERIZATION && !modulesOrienting) {
+        // Run robot at desiredSpeeds
+        // Generate feasible next setpoint
+        currentSetpoint =
+            setpointGenerator.generateSetpoint(
+                currentModuleLimits, currentSetpoint, desiredSpeeds, Constants.loopPeriodSecs);
+        for (int i = 0; i < modules.length; i++) {
+          // Optimize setpoints
+          optimize(
+              currentSetpoint.moduleStates()[i], modules[i].getAngle(), optimizedSetpointStates[i]);
+
+          optimizedSetpointTorques[i].speedMetersPerSecond = 0.0;
+          optimizedSetpointTorques[i].angle = optimizedSetpointStates[i].angle;
+
+          modules[i].runSetpoint(optimizedSetpointStates[i], optimizedSetpointTorques[i]);
         }
+        Logger.recordOutput("Drive/SwerveStates/Setpoints", optimizedSetpointStates);
+        Logger.recordOutput("Drive/SwerveStates/Torques", optimizedSetpointTorques);
       }
-      case AUTO -> {
-        // Run auto drive with drive input
-        desiredSpeeds = autoDriveController.update();
+
+      if (DriveConstants.shouldPrintZeros) {
+        printZeros();
       }
-      case AUTO_ALIGN -> {
-        // Run auto align with drive input
-        desiredSpeeds = autoAlignController.update();
+
+      // Log chassis speeds and swerve states
+      Logger.recordOutput(
+          "Drive/SwerveStates/Desired(b4 Poofs)",
+          DriveConstants.kinematics.toSwerveModuleStates(desiredSpeeds));
+      Logger.recordOutput("Drive/DesiredSpeeds", desiredSpeeds);
+      Logger.recordOutput("Drive/SetpointSpeeds", currentSetpoint.chassisSpeeds());
+      Logger.recordOutput("Drive/DriveMode", currentDriveMode);
+    } finally {
+      LoopProfiler.pop();
+    }
+  }
+
+  /**
+   * Finds modules that disagree with the movement of the rest in the current odometry sample and
+   * sets their weight to zero, worst first. A module disagrees when its residual is above {@link
+   * #slipResidualMetersPerSec}. With two modules left there is no way to tell which one is wrong,
+   * so both are kept.
+   *
+   * @param dt Time since the last included sample.
+   * @return False if fewer than two modules are left, in which case the sample can't be used.
+   */
+  private boolean rejectSlippingModules(double dt) {
+    double residualThreshold = slipResidualMetersPerSec.get() * dt;
+    while (true) {
+      int weightedModules = 0;
+      for (double weight : moduleWeights) {
+        if (weight > 0.0) weightedModules++;
       }
-      case CHARACTERIZATION -> {
-        // Run characterization
-        for (Module module : modules) {
-          module.runCharacterization(0.0, characterizationInput);
+      if (weightedModules < 2) {
+        for (int j = 0; j < modules.length; j++) {
+          slipFlags[j] |= moduleWeights[j] == 0.0;
         }
+        return false;
       }
-      case WHEEL_RADIUS_CHARACTERIZATION -> {
-        desiredSpeeds = new ChassisSpeeds(0, 0, characterizationInput);
+
+      kinematicsSolver.toTwist2d(lastPositions, wheelPositions.positions, moduleWeights, slipTwist);
+      int worstModule = -1;
+      double worstResidual = residualThreshold;
+      for (int j = 0; j < modules.length; j++) {
+        double residual = kinematicsSolver.getResidual(j);
+        if (moduleWeights[j] > 0.0 && residual > worstResidual) {
+          worstModule = j;
+          worstResidual = residual;
+        }
       }
-      case SIMPLE -> {
-        desiredSpeeds = simpleDriveController.update();
+      if (worstModule < 0 || weightedModules == 2) {
+        for (int j = 0; j < modules.length; j++) {
+          slipFlags[j] |= moduleWeights[j] == 0.0;
+          maxResiduals[j] = Math.max(maxResiduals[j], kinematicsSolver.getResidual(j) / dt);
+        }
+        return true;
       }
-      default -> {}
+      moduleWeights[worstModule] = 0.0;
     }
+  }
 
-    // Run modules
-    if (currentDriveMode != DriveMode.CHARACTERIZATION && !modulesOrienting) {
-      // Run robot at desiredSpeeds
-      // Generate feasible next setpoint
-      currentSetpoint =
-          setpointGenerator.generateSetpoint(
-              currentModuleLimits, currentSetpoint, desiredSpeeds, Constants.loopPeriodSecs);
-      SwerveModuleState[] optimizedSetpointStates = new SwerveModuleState[4];
-      SwerveModuleState[] optimizedSetpointTorques = new SwerveModuleState[4];
-
-      for (int i = 0; i < modules.length; i++) {
-        // Optimize setpoints
-        optimizedSetpointStates[i] =
-            SwerveModuleState.optimize(currentSetpoint.moduleStates()[i], modules[i].getAngle());
-
-        optimizedSetpointTorques[i] = new SwerveModuleState(0.0, optimizedSetpointStates[i].angle);
-
-        modules[i].runSetpoint(optimizedSetpointStates[i], optimizedSetpointTorques[i]);
-      }
-      Logger.recordOutput("Drive/SwerveStates/Setpoints", optimizedSetpointStates);
-      Logger.recordOutput("Drive/SwerveStates/Torques", optimizedSetpointTorques);
+  /**
+   * Same as {@link SwerveModuleState#optimize(SwerveModuleState, Rotation2d)}, but writes into
+   * {@code result} instead of allocating a new state.
+   */
+  private static void optimize(
+      SwerveModuleState desiredState, Rotation2d currentAngle, SwerveModuleState result) {
+    double delta =
+        MathUtil.angleModulus(desiredState.angle.getRadians() - currentAngle.getRadians());
+    if (Math.abs(delta) > Math.PI / 2.0) {
+      result.speedMetersPerSecond = -desiredState.speedMetersPerSecond;
+      result.angle = desiredState.angle.rotateBy(halfTurn);
+    } else {
+      result.speedMetersPerSecond = desiredState.speedMetersPerSecond;
+      result.angle = desiredState.angle;
     }
+  }
 
-    if (DriveConstants.shouldPrintZeros) {
-      printZeros();
-    }
+  private static SwerveModulePosition[] newModulePositions() {
+    return new SwerveModulePosition[] {
+      new SwerveModulePosition(),
+      new SwerveModulePosition(),
+      new SwerveModulePosition(),
+      new SwerveModulePosition()
+    };
+  }
 
-    // Log chassis speeds and swerve states
-    Logger.recordOutput(
-        "Drive/SwerveStates/Desired(b4 Poofs)",
-        DriveConstants.kinematics.toSwerveModuleStates(desiredSpeeds));
-    Logger.recordOutput("Drive/DesiredSpeeds", desiredSpeeds);
-    Logger.recordOutput("Drive/SetpointSpeeds", currentSetpoint.chassisSpeeds());
-    Logger.recordOutput("Drive/DriveMode", currentDriveMode);
+  private static SwerveModuleState[] newModuleStates() {
+    return new SwerveModuleState[] {
+      new SwerveModuleState(),
+      new SwerveModuleState(),
+      new SwerveModuleState(),
+      new SwerveModuleState()
+    };
   }
 
   /** Configure the path planner for the swerve drivetrain */
@@ -560,16 +704,36 @@ public class Drive extends SubsystemBase {
     }
   }
 
-  /** Returns the module states (turn angles and drive velocities) for all of the modules. */
+  /**
+   * Returns the module states (turn angles and drive velocities) for all of the modules. The array
+   * is shared by every caller and updated in place each cycle, so do not modify or keep it.
+   */
   @AutoLogOutput(key = "Drive/SwerveStates/Measured")
   public SwerveModuleState[] getModuleStates() {
-    return Arrays.stream(modules).map(Module::getState).toArray(SwerveModuleState[]::new);
+    updateMeasuredStates();
+    return measuredStates;
   }
 
-  /** Returns the measured speeds of the robot in the robot's frame of reference. */
+  /**
+   * Returns the measured speeds of the robot in the robot's frame of reference. The speeds are
+   * shared by every caller and updated in place each cycle, so do not modify or keep them.
+   */
   @AutoLogOutput(key = "Drive/MeasuredSpeeds")
   public ChassisSpeeds getSpeeds() {
-    return DriveConstants.kinematics.toChassisSpeeds(getModuleStates());
+    updateMeasuredStates();
+    return measuredSpeeds;
+  }
+
+  /** Solves the measured states and speeds once per cycle, after the module inputs update. */
+  private void updateMeasuredStates() {
+    if (measuredStatesValid) {
+      return;
+    }
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].getState(measuredStates[i]);
+    }
+    kinematicsSolver.toChassisSpeeds(measuredStates, measuredSpeeds);
+    measuredStatesValid = true;
   }
 
   public Rotation2d[] getAbsoluteModuleRotations() {
@@ -64,6 +64,18 @@ public final class DriveConstants {
         case COMPBOT -> 150.0;
       };
 
+  /**
+   * Integrate odometry inside the odometry thread at {@link #odometryFrequency} so {@link
+   * frc.robot.RobotState#getLatestPose()} can return a pose newer than the last main loop.
+   */
+  public static final boolean highRateOdometry = true;
+
+  /**
+   * Ignore individual slipping or glitching modules when solving odometry instead of dropping the
+   * whole sample. The remaining modules are solved with weighted least squares.
+   */
+  public static final boolean slipTolerantOdometry = true;
+
   public static final Matrix<N3, N1> odometryStateStdDevs =
       switch (Constants.getRobot()) {
         default -> new Matrix<>(VecBuilder.fill(0.003, 0.003, 0.0002));
@@ -13,7 +13,6 @@ import com.ctre.phoenix6.configs.Pigeon2Configuration;
 import com.ctre.phoenix6.hardware.Pigeon2;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
-import java.util.Queue;
 
 /** IO implementation for Pigeon2 */
 public class GyroIOPigeon2 implements GyroIO {
@@ -21,7 +20,6 @@ public class GyroIOPigeon2 implements GyroIO {
 
   private final Pigeon2 pigeon;
   private final StatusSignal<Double> yaw;
-  private final Queue<Double> yawPositionQueue;
   private final StatusSignal<Double> yawVelocity;
 
   public GyroIOPigeon2(boolean phoenixDrive) {
@@ -35,10 +33,13 @@ public class GyroIOPigeon2 implements GyroIO {
     yawVelocity.setUpdateFrequency(100.0);
     pigeon.optimizeBusUtilization();
     if (phoenixDrive) {
-      yawPositionQueue =
-          PhoenixOdometryThread.getInstance().registerSignal(pigeon, pigeon.getYaw());
+      PhoenixOdometryThread.getInstance(pigeon.getNetwork())
+          .registerSignal(yaw, OdometryFrameBuffer.gyroYawIndex, Units.degreesToRadians(1.0));
     } else {
-      yawPositionQueue = SparkMaxOdometryThread.getInstance().registerSignal(yaw::getValueAsDouble);
+      SparkMaxOdometryThread.getInstance()
+          .registerSignal(
+              () -> Units.degreesToRadians(yaw.getValueAsDouble()),
+              OdometryFrameBuffer.gyroYawIndex);
     }
   }
 
@@ -48,8 +49,11 @@ public class GyroIOPigeon2 implements GyroIO {
     inputs.yawPosition = Rotation2d.fromDegrees(yaw.getValueAsDouble());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(yawVelocity.getValueAsDouble());
 
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream().map(Rotation2d::fromDegrees).toArray(Rotation2d[]::new);
-    yawPositionQueue.clear();
+    int frames = Drive.odometryFrames.getSnapshotSize();
+    inputs.odometryYawPositions = new Rotation2d[frames];
+    for (int i = 0; i < frames; i++) {
+      inputs.odometryYawPositions[i] =
+          Rotation2d.fromRadians(Drive.odometryFrames.get(i, OdometryFrameBuffer.gyroYawIndex));
+    }
   }
 }
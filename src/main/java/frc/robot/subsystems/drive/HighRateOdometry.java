@@ -0,0 +1,113 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.OdometryFrameBuffer.*;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import frc.robot.util.swerve.SwerveKinematicsSolver;
+
+/**
+ * Integrates odometry at the full rate of the odometry threads instead of once per main loop.
+ *
+ * <p>Every frame is integrated as soon as it is sampled and the result is published as an
+ * immutable {@link Snapshot} with a single volatile write, so any thread can read the newest pose
+ * without taking {@link Drive#odometryLock}. Frames from every odometry thread are integrated
+ * together, holding the latest value of the signals owned by other threads. The pose lives in its
+ * own odometry frame; {@link frc.robot.RobotState#getLatestPose()} uses the pose stored in each
+ * odometry frame to line it up with the main pose estimate, and {@link #reset()} starts it over
+ * when that estimate is reset.
+ */
+public class HighRateOdometry {
+  /** Pose integrated up to the frame sampled at {@code timestamp}. */
+  public record Snapshot(double timestamp, Pose2d pose) {}
+
+  private volatile Snapshot latest = null;
+
+  private final SwerveKinematicsSolver kinematics =
+      new SwerveKinematicsSolver(DriveConstants.moduleTranslations);
+  private final double[] driveDeltas = new double[4];
+  private final double[] turnAngles = new double[4];
+  private final Twist2d twist = new Twist2d();
+  private final double[] heldFrame = new double[frameLength];
+  private boolean heldGyroValid = false;
+  private final double[] lastDrivePositions = new double[4];
+  private double lastGyroYaw = 0.0;
+  private boolean hasLastFrame = false;
+  private Pose2d pose = new Pose2d();
+  private double lastTimestamp = Double.NEGATIVE_INFINITY;
+  private volatile double resetTimestamp = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Integrates a frame and writes the resulting pose into it. Only call from odometry threads.
+   *
+   * @param frame Frame laid out as described by {@link OdometryFrameBuffer}.
+   * @param source Buffer of the calling thread, which owns the signals filled in {@code frame}.
+   * @param gyroValid Whether the frame holds a valid gyro yaw. Ignored if the source does not own
+   *     the gyro.
+   */
+  public synchronized void integrate(
+      double[] frame, OdometryFrameBuffer source, boolean gyroValid) {
+    for (int index : source.getSignalIndices()) {
+      heldFrame[index] = frame[index];
+    }
+    if (source.hasSignalIndex(gyroYawIndex)) {
+      heldGyroValid = gyroValid;
+    }
+
+    if (hasLastFrame) {
+      for (int i = 0; i < 4; i++) {
+        driveDeltas[i] = heldFrame[drivePositionIndex(i)] - lastDrivePositions[i];
+        turnAngles[i] = heldFrame[turnPositionIndex(i)];
+      }
+      kinematics.toTwist2d(driveDeltas, turnAngles, twist);
+      if (heldGyroValid) {
+        twist.dtheta = heldFrame[gyroYawIndex] - lastGyroYaw;
+      }
+      pose = pose.exp(twist);
+    }
+    for (int i = 0; i < 4; i++) {
+      lastDrivePositions[i] = heldFrame[drivePositionIndex(i)];
+    }
+    lastGyroYaw = heldFrame[gyroYawIndex];
+    hasLastFrame = true;
+    lastTimestamp = Math.max(lastTimestamp, frame[timestampIndex]);
+
+    frame[odometryXIndex] = pose.getX();
+    frame[odometryYIndex] = pose.getY();
+    frame[odometryThetaIndex] = pose.getRotation().getRadians();
+    latest = new Snapshot(frame[timestampIndex], pose);
+  }
+
+  /**
+   * Starts the pose over at the origin and forgets the latest snapshot. Call when the pose estimate
+   * is reset, so movement from before the reset is not applied on top of the new estimate.
+   */
+  public synchronized void reset() {
+    pose = new Pose2d();
+    latest = null;
+    resetTimestamp = lastTimestamp;
+  }
+
+  /**
+   * Returns whether a frame sampled at {@code timestamp} was integrated after the last {@link
+   * #reset()}. Frames still buffered from before a reset hold poses from the old origin.
+   */
+  public boolean isAfterReset(double timestamp) {
+    return timestamp > resetTimestamp;
+  }
+
+  /**
+   * Returns the pose integrated up to the newest frame, or null if no odometry thread has
+   * integrated any frames. Safe to call from any thread.
+   */
+  public Snapshot getLatest() {
+    return latest;
+  }
+}
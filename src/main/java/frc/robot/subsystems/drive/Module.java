@@ -33,7 +33,7 @@ public class Module {
       new LoggedTunableNumber("Drive/Module/TurnkD", moduleConstants.turnkD());
   private static final String[] moduleNames = new String[] {"FL", "FR", "BL", "BR"};
 
-  private final int index;
+  private final String inputsKey;
   private final ModuleIO io;
   private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
   private SimpleMotorFeedforward ff =
@@ -46,7 +46,7 @@ public class Module {
 
   public Module(ModuleIO io, int index) {
     this.io = io;
-    this.index = index;
+    inputsKey = "Drive/Module" + index;
 
     driveMotorDisconnected =
         new Alert(moduleNames[index] + " drive motor disconnected!", Alert.AlertType.WARNING);
@@ -57,7 +57,7 @@ public class Module {
   /** Called while blocking odometry thread */
   public void updateInputs() {
     io.updateInputs(inputs);
-    Logger.processInputs("Drive/Module" + index, inputs);
+    Logger.processInputs(inputsKey, inputs);
 
     // Update ff and controllers
     LoggedTunableNumber.ifChanged(
@@ -117,6 +117,18 @@ public class Module {
     return positions;
   }
 
+  /** Get the number of odometry samples from last cycle. */
+  public int getOdometryPositionCount() {
+    return Math.min(
+        inputs.odometryDrivePositionsMeters.length, inputs.odometryTurnPositions.length);
+  }
+
+  /** Write the odometry sample at {@code sample} from last cycle into {@code result}. */
+  public void getOdometryPosition(int sample, SwerveModulePosition result) {
+    result.distanceMeters = inputs.odometryDrivePositionsMeters[sample];
+    result.angle = inputs.odometryTurnPositions[sample];
+  }
+
   /** Get turn angle of module as {@link Rotation2d}. */
   public Rotation2d getAngle() {
     return inputs.turnAbsolutePosition;
@@ -147,6 +159,12 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
+  /** Write current {@link SwerveModuleState} of module into {@code result}. */
+  public void getState(SwerveModuleState result) {
+    result.speedMetersPerSecond = getVelocityMetersPerSec();
+    result.angle = getAngle();
+  }
+
   /** Get velocity of drive wheel for characterization */
   public double getCharacterizationVelocity() {
     return inputs.driveVelocityRadsPerSec;
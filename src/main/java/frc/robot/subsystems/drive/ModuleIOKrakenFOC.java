@@ -21,7 +21,6 @@ import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import frc.robot.subsystems.drive.DriveConstants.ModuleConfig;
-import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.Supplier;
@@ -47,9 +46,9 @@ public class ModuleIOKrakenFOC implements ModuleIO {
   private final StatusSignal<Double> turnSupplyCurrent;
   private final StatusSignal<Double> turnTorqueCurrent;
 
-  // Odometry Queues
-  private final Queue<Double> drivePositionQueue;
-  private final Queue<Double> turnPositionQueue;
+  // Odometry frame indices
+  private final int drivePositionIndex;
+  private final int turnPositionIndex;
 
   // Controller Configs
   private final TalonFXConfiguration driveTalonConfig = new TalonFXConfiguration();
@@ -65,7 +64,7 @@ public class ModuleIOKrakenFOC implements ModuleIO {
       new PositionTorqueCurrentFOC(0).withUpdateFreqHz(0);
   private final NeutralOut neutralControl = new NeutralOut().withUpdateFreqHz(0);
 
-  public ModuleIOKrakenFOC(ModuleConfig config) {
+  public ModuleIOKrakenFOC(ModuleConfig config, int index) {
     // Init controllers and encoders from config constants
     driveTalon = new TalonFX(config.driveID());
     turnTalon = new TalonFX(config.turnID());
@@ -104,9 +103,15 @@ public class ModuleIOKrakenFOC implements ModuleIO {
     turnPosition = turnTalon.getPosition();
     BaseStatusSignal.setUpdateFrequencyForAll(odometryFrequency, drivePosition, turnPosition);
 
-    drivePositionQueue =
-        PhoenixOdometryThread.getInstance().registerSignal(driveTalon, drivePosition);
-    turnPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(turnTalon, turnPosition);
+    drivePositionIndex = OdometryFrameBuffer.drivePositionIndex(index);
+    turnPositionIndex = OdometryFrameBuffer.turnPositionIndex(index);
+    PhoenixOdometryThread.getInstance(driveTalon.getNetwork())
+        .registerSignal(
+            drivePosition,
+            drivePositionIndex,
+            Units.rotationsToRadians(1.0) * driveConfig.wheelRadius());
+    PhoenixOdometryThread.getInstance(turnTalon.getNetwork())
+        .registerSignal(turnPosition, turnPositionIndex, Units.rotationsToRadians(1.0));
 
     // Get signals and set update rate
     // 100hz signals
@@ -170,15 +175,13 @@ public class ModuleIOKrakenFOC implements ModuleIO {
     inputs.turnSupplyCurrentAmps = turnSupplyCurrent.getValueAsDouble();
     inputs.turnTorqueCurrentAmps = turnTorqueCurrent.getValueAsDouble();
 
-    inputs.odometryDrivePositionsMeters =
-        drivePositionQueue.stream()
-            .mapToDouble(
-                signalValue -> Units.rotationsToRadians(signalValue) * driveConfig.wheelRadius())
-            .toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream().map(Rotation2d::fromRotations).toArray(Rotation2d[]::new);
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    inputs.odometryDrivePositionsMeters = Drive.odometryFrames.getColumn(drivePositionIndex);
+    int frames = Drive.odometryFrames.getSnapshotSize();
+    inputs.odometryTurnPositions = new Rotation2d[frames];
+    for (int i = 0; i < frames; i++) {
+      inputs.odometryTurnPositions[i] =
+          Rotation2d.fromRadians(Drive.odometryFrames.get(i, turnPositionIndex));
+    }
   }
 
   @Override
@@ -17,7 +17,6 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.RobotController;
-import java.util.Queue;
 import java.util.function.Supplier;
 
 public class ModuleIOSparkMax implements ModuleIO {
@@ -32,14 +31,14 @@ public class ModuleIOSparkMax implements ModuleIO {
   private final PIDController driveController;
   private final PIDController turnController;
 
-  // Queues
-  private final Queue<Double> drivePositionQueue;
-  private final Queue<Double> turnPositionQueue;
+  // Odometry frame indices
+  private final int drivePositionIndex;
+  private final int turnPositionIndex;
 
   private final Rotation2d absoluteEncoderOffset;
   private final Supplier<Rotation2d> absoluteEncoderValue;
 
-  public ModuleIOSparkMax(ModuleConfig config) {
+  public ModuleIOSparkMax(ModuleConfig config, int index) {
     // Init motor & encoder objects
     driveMotor = new CANSparkMax(config.driveID(), CANSparkMax.MotorType.kBrushless);
     turnMotor = new CANSparkMax(config.turnID(), CANSparkMax.MotorType.kBrushless);
@@ -84,11 +83,17 @@ public class ModuleIOSparkMax implements ModuleIO {
                     turnAbsoluteEncoder.getVoltage() / RobotController.getVoltage5V())
                 .minus(absoluteEncoderOffset);
 
-    drivePositionQueue =
-        SparkMaxOdometryThread.getInstance().registerSignal(driveEncoder::getPosition);
-    turnPositionQueue =
-        SparkMaxOdometryThread.getInstance()
-            .registerSignal(() -> absoluteEncoderValue.get().getRadians());
+    drivePositionIndex = OdometryFrameBuffer.drivePositionIndex(index);
+    turnPositionIndex = OdometryFrameBuffer.turnPositionIndex(index);
+    SparkMaxOdometryThread.getInstance()
+        .registerSignal(
+            () ->
+                Units.rotationsToRadians(
+                        driveEncoder.getPosition() / moduleConstants.driveReduction())
+                    * driveConfig.wheelRadius(),
+            drivePositionIndex);
+    SparkMaxOdometryThread.getInstance()
+        .registerSignal(() -> absoluteEncoderValue.get().getRadians(), turnPositionIndex);
 
     // Init Controllers
     driveController = new PIDController(moduleConstants.drivekP(), 0.0, moduleConstants.drivekD());
@@ -117,17 +122,13 @@ public class ModuleIOSparkMax implements ModuleIO {
     inputs.turnAppliedVolts = turnMotor.getAppliedOutput() * turnMotor.getBusVoltage();
     inputs.turnSupplyCurrentAmps = turnMotor.getOutputCurrent();
 
-    inputs.odometryDrivePositionsMeters =
-        drivePositionQueue.stream()
-            .mapToDouble(
-                motorPositionRevs ->
-                    Units.rotationsToRadians(motorPositionRevs / moduleConstants.driveReduction())
-                        * driveConfig.wheelRadius())
-            .toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream().map(Rotation2d::fromRadians).toArray(Rotation2d[]::new);
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    inputs.odometryDrivePositionsMeters = Drive.odometryFrames.getColumn(drivePositionIndex);
+    int frames = Drive.odometryFrames.getSnapshotSize();
+    inputs.odometryTurnPositions = new Rotation2d[frames];
+    for (int i = 0; i < frames; i++) {
+      inputs.odometryTurnPositions[i] =
+          Rotation2d.fromRadians(Drive.odometryFrames.get(i, turnPositionIndex));
+    }
   }
 
   @Override
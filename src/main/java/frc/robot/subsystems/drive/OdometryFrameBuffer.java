@@ -0,0 +1,120 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import frc.robot.util.DoubleRingBuffer;
+
+/**
+ * Passes odometry samples from one odometry thread to {@link Drive#odometryFrames} as whole frames.
+ *
+ * <p>Every frame has the same fixed layout: the timestamp, the gyro yaw and the drive and turn
+ * position of every module, followed by the pose {@link HighRateOdometry} integrated up to that
+ * sample. Each thread only fills in the signals registered with it, all read in the same sample. A
+ * frame is published or dropped as a unit. Positions are stored in meters and angles in radians.
+ *
+ * <p>{@link #offer(double[])} may only be called from the odometry thread that owns the buffer.
+ * {@link #drainTo(double[])} may only be called from the main thread.
+ */
+public class OdometryFrameBuffer {
+  public static final int timestampIndex = 0;
+  public static final int gyroYawIndex = 1;
+  public static final int odometryXIndex = 10;
+  public static final int odometryYIndex = 11;
+  public static final int odometryThetaIndex = 12;
+  public static final int frameLength = 13;
+
+  /** Frames each odometry thread can publish between snapshots, a few main loops worth. */
+  public static final int defaultCapacity = 20;
+
+  private final DoubleRingBuffer buffer;
+  private volatile int[] signalIndices = new int[0];
+
+  /**
+   * Creates a new frame buffer.
+   *
+   * @param capacity Minimum number of frames the odometry thread can publish between snapshots.
+   */
+  public OdometryFrameBuffer(int capacity) {
+    buffer = new DoubleRingBuffer(capacity * frameLength);
+  }
+
+  /** Returns the index of the drive position of a module within a frame. */
+  public static int drivePositionIndex(int module) {
+    return 2 + module * 2;
+  }
+
+  /** Returns the index of the turn position of a module within a frame. */
+  public static int turnPositionIndex(int module) {
+    return 3 + module * 2;
+  }
+
+  /** Returns the maximum number of frames the buffer can hold. */
+  public int capacity() {
+    return buffer.capacity() / frameLength;
+  }
+
+  /** Marks {@code index} as filled in by this buffer's odometry thread. */
+  public void addSignalIndex(int index) {
+    int[] newSignalIndices = new int[signalIndices.length + 1];
+    System.arraycopy(signalIndices, 0, newSignalIndices, 0, signalIndices.length);
+    newSignalIndices[signalIndices.length] = index;
+    signalIndices = newSignalIndices;
+  }
+
+  /** Returns the indices filled in by this buffer's odometry thread. Do not modify. */
+  public int[] getSignalIndices() {
+    return signalIndices;
+  }
+
+  /** Returns whether {@code index} is filled in by this buffer's odometry thread. */
+  public boolean hasSignalIndex(int index) {
+    for (int signalIndex : signalIndices) {
+      if (signalIndex == index) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the next frame offered would be dropped. Only call from the odometry thread,
+   * where the answer can only change to false before the next offer.
+   */
+  public boolean isFull() {
+    return buffer.size() + frameLength > buffer.capacity();
+  }
+
+  /**
+   * Publishes a frame. Only call from the odometry thread.
+   *
+   * @param frame Array of length {@link #frameLength}.
+   * @return False if the buffer was full and the frame was dropped.
+   */
+  public boolean offer(double[] frame) {
+    return buffer.offer(frame);
+  }
+
+  /**
+   * Moves published frames into {@code destination}, oldest first. Only call from the main thread.
+   *
+   * @param destination Array with a length that is a multiple of {@link #frameLength}.
+   * @return The number of frames copied.
+   */
+  public int drainTo(double[] destination) {
+    return drainTo(destination, 0);
+  }
+
+  /**
+   * Moves published frames into {@code destination} after the first {@code offsetFrames} frames,
+   * oldest first. Only call from the main thread.
+   *
+   * @param destination Array with a length that is a multiple of {@link #frameLength}.
+   * @return The number of frames copied.
+   */
+  public int drainTo(double[] destination, int offsetFrames) {
+    return buffer.drainTo(destination, offsetFrames * frameLength) / frameLength;
+  }
+}
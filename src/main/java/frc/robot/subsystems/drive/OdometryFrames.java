@@ -0,0 +1,170 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.OdometryFrameBuffer.*;
+
+/**
+ * Collects the frames published by every odometry thread into one timeline for {@link Drive}.
+ *
+ * <p>Each odometry thread (one per CAN bus) publishes into its own {@link OdometryFrameBuffer}.
+ * {@link #takeSnapshot()} merges their frames in timestamp order. Signals owned by other threads
+ * hold their latest value at or before each frame, so every merged frame is complete. With a
+ * single odometry thread the snapshot is exactly the frames it published.
+ *
+ * <p>A thread can still publish frames up to the newest timestamp it has published so far, so
+ * frames newer than the oldest of those across threads are held for the next snapshot. This keeps
+ * the merged timeline in order across snapshots. Threads that have not published for {@link
+ * #maxHoldSecs} are ignored so they cannot stall odometry, and frames they publish later than the
+ * timeline has reached are dropped and counted.
+ *
+ * <p>Only call from the main thread, and register sources while holding {@link
+ * Drive#odometryLock}.
+ */
+public class OdometryFrames {
+  private static final double[] empty = new double[] {};
+  private static final double maxHoldSecs = 0.1;
+
+  private OdometryFrameBuffer[] sources = new OdometryFrameBuffer[0];
+  private double[][] sourceFrames = new double[0][];
+  private final int[] sourceCounts = new int[8];
+  private final int[] sourcePositions = new int[8];
+  private final double[] latestTimestamps = new double[8];
+  private double lastEmittedTimestamp = Double.NEGATIVE_INFINITY;
+  private long staleFrameCount = 0;
+  private final double[] heldFrame = new double[frameLength];
+  private double[] snapshot = new double[0];
+  private int snapshotFrames = 0;
+
+  /**
+   * Creates the frame buffer for a new odometry thread.
+   *
+   * @param capacity Minimum number of frames the thread can publish between snapshots.
+   */
+  public OdometryFrameBuffer createSource(int capacity) {
+    if (sources.length == sourceCounts.length) {
+      throw new IllegalStateException("Too many odometry threads");
+    }
+    OdometryFrameBuffer source = new OdometryFrameBuffer(capacity);
+    OdometryFrameBuffer[] newSources = new OdometryFrameBuffer[sources.length + 1];
+    System.arraycopy(sources, 0, newSources, 0, sources.length);
+    newSources[sources.length] = source;
+    double[][] newSourceFrames = new double[sourceFrames.length + 1][];
+    System.arraycopy(sourceFrames, 0, newSourceFrames, 0, sourceFrames.length);
+    // Room for a full buffer on top of the frames held back from the last snapshot
+    newSourceFrames[sourceFrames.length] = new double[2 * source.capacity() * frameLength];
+    latestTimestamps[sources.length] = Double.NEGATIVE_INFINITY;
+    sources = newSources;
+    sourceFrames = newSourceFrames;
+    snapshot = new double[snapshot.length + 2 * source.capacity() * frameLength];
+    return source;
+  }
+
+  /**
+   * Moves every published frame into the snapshot, replacing the previous snapshot.
+   *
+   * @return The number of frames in the snapshot.
+   */
+  public int takeSnapshot() {
+    double newestTimestamp = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < sources.length; i++) {
+      // Move the frames held back last time to the front, then add the new ones after them
+      double[] frames = sourceFrames[i];
+      int held = sourceCounts[i] - sourcePositions[i];
+      System.arraycopy(frames, sourcePositions[i] * frameLength, frames, 0, held * frameLength);
+      sourceCounts[i] = held + sources[i].drainTo(frames, held);
+      sourcePositions[i] = 0;
+      if (sourceCounts[i] > 0) {
+        int newest = (sourceCounts[i] - 1) * frameLength;
+        latestTimestamps[i] = Math.max(latestTimestamps[i], frames[newest + timestampIndex]);
+      }
+      newestTimestamp = Math.max(newestTimestamp, latestTimestamps[i]);
+    }
+    // Release frames up to the oldest latest timestamp of the threads still publishing
+    double releaseTimestamp = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < sources.length; i++) {
+      if (latestTimestamps[i] >= newestTimestamp - maxHoldSecs) {
+        releaseTimestamp = Math.min(releaseTimestamp, latestTimestamps[i]);
+      }
+    }
+
+    snapshotFrames = 0;
+    while (true) {
+      // Find the source with the oldest remaining frame
+      int next = -1;
+      double nextTimestamp = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < sources.length; i++) {
+        if (sourcePositions[i] < sourceCounts[i]) {
+          double timestamp = sourceFrames[i][sourcePositions[i] * frameLength + timestampIndex];
+          if (timestamp < nextTimestamp) {
+            next = i;
+            nextTimestamp = timestamp;
+          }
+        }
+      }
+      if (next < 0 || nextTimestamp > releaseTimestamp) break;
+      if (nextTimestamp < lastEmittedTimestamp) {
+        // From a thread that stalled while the timeline moved past it
+        staleFrameCount++;
+        sourcePositions[next]++;
+        continue;
+      }
+
+      // Update the signals owned by that source, then emit the complete frame
+      double[] frames = sourceFrames[next];
+      int offset = sourcePositions[next] * frameLength;
+      for (int index : sources[next].getSignalIndices()) {
+        heldFrame[index] = frames[offset + index];
+      }
+      heldFrame[timestampIndex] = frames[offset + timestampIndex];
+      heldFrame[odometryXIndex] = frames[offset + odometryXIndex];
+      heldFrame[odometryYIndex] = frames[offset + odometryYIndex];
+      heldFrame[odometryThetaIndex] = frames[offset + odometryThetaIndex];
+      System.arraycopy(heldFrame, 0, snapshot, snapshotFrames * frameLength, frameLength);
+      snapshotFrames++;
+      sourcePositions[next]++;
+      lastEmittedTimestamp = nextTimestamp;
+    }
+    return snapshotFrames;
+  }
+
+  /** Returns the number of frames dropped because they were older than the merged timeline. */
+  public long getStaleFrameCount() {
+    return staleFrameCount;
+  }
+
+  /** Returns the number of frames in the current snapshot. */
+  public int getSnapshotSize() {
+    return snapshotFrames;
+  }
+
+  /** Returns the value at {@code index} of a frame in the current snapshot. */
+  public double get(int frame, int index) {
+    return snapshot[frame * frameLength + index];
+  }
+
+  /**
+   * Returns the value at {@code index} of every frame in the current snapshot as a new array,
+   * oldest first.
+   *
+   * <p>Only use this for columns that are logged as inputs. AdvantageKit keeps a reference to every
+   * logged array after the cycle and skips values equal to the last ones it wrote, so a logged
+   * array has to be new each cycle. Columns that are only converted into other inputs should be
+   * read with {@link #get(int, int)} instead.
+   */
+  public double[] getColumn(int index) {
+    if (snapshotFrames == 0) {
+      return empty;
+    }
+    double[] column = new double[snapshotFrames];
+    for (int i = 0; i < snapshotFrames; i++) {
+      column[i] = snapshot[i * frameLength + index];
+    }
+    return column;
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import frc.robot.util.RollingStatistics;
+import java.util.ArrayList;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Timing measurements for one odometry thread, used to tune {@link
+ * DriveConstants#odometryFrequency} under real CAN load. Every instance is logged by {@link
+ * #logAll()} along with the hold time of {@link Drive#odometryLock}.
+ *
+ * <p>Samples are recorded from the odometry thread and logged from the main thread, so every method
+ * is synchronized. The lock is only held long enough to copy a few numbers.
+ */
+public class OdometryThreadStats {
+  private static final int windowSize = 256;
+  private static final List<OdometryThreadStats> instances = new ArrayList<>();
+  private static final RollingStatistics lockHoldMs = new RollingStatistics(windowSize);
+  private static final String[] lockHoldKeys = statisticKeys("Drive/OdometryThread/LockHoldMs");
+  private static final String[] frameIndexNames =
+      new String[] {
+        "Timestamp",
+        "GyroYaw",
+        "FLDrive",
+        "FLTurn",
+        "FRDrive",
+        "FRTurn",
+        "BLDrive",
+        "BLTurn",
+        "BRDrive",
+        "BRTurn"
+      };
+
+  // Logging keys, built once so logging does not concatenate strings every loop
+  private final String[] intervalKeys;
+  private final String[] waitKeys;
+  private final String[] timestampCorrectionKeys;
+  private final String timeBaseOffsetKey;
+  private final String sampleCountKey;
+  private final String timeoutCountKey;
+  private final String droppedCountKey;
+  private final String[] signalErrorKeys = new String[frameIndexNames.length];
+  private final RollingStatistics intervalMs = new RollingStatistics(windowSize);
+  private final RollingStatistics waitMs = new RollingStatistics(windowSize);
+  private final RollingStatistics timestampCorrectionMs = new RollingStatistics(windowSize);
+  private double timeBaseOffsetSecs = 0.0;
+  private double lastTimestamp = Double.NaN;
+  private long sampleCount = 0;
+  private long timeoutCount = 0;
+  private long droppedCount = 0;
+  private final long[] signalErrorCounts = new long[OdometryFrameBuffer.frameLength];
+
+  /**
+   * Creates the measurements for an odometry thread.
+   *
+   * @param name Name of the thread, logged under "Drive/OdometryThread/{name}".
+   */
+  public OdometryThreadStats(String name) {
+    String key = "Drive/OdometryThread/" + name;
+    intervalKeys = statisticKeys(key + "/IntervalMs");
+    waitKeys = statisticKeys(key + "/WaitMs");
+    timestampCorrectionKeys = statisticKeys(key + "/TimestampCorrectionMs");
+    timeBaseOffsetKey = key + "/TimeBaseOffsetSecs";
+    sampleCountKey = key + "/SampleCount";
+    timeoutCountKey = key + "/TimeoutCount";
+    droppedCountKey = key + "/DroppedCount";
+    for (int i = 0; i < frameIndexNames.length; i++) {
+      signalErrorKeys[i] = key + "/SignalErrors/" + frameIndexNames[i];
+    }
+    synchronized (OdometryThreadStats.class) {
+      instances.add(this);
+    }
+  }
+
+  /**
+   * Records one pass of the odometry thread.
+   *
+   * @param timestamp Timestamp of the frame in seconds.
+   * @param waitSeconds Time spent blocked waiting for or refreshing the signals.
+   * @param timedOut Whether the wait ended because of a timeout.
+   * @param dropped Whether the frame was dropped because the thread's frame buffer was full.
+   */
+  public synchronized void recordSample(
+      double timestamp, double waitSeconds, boolean timedOut, boolean dropped) {
+    if (!Double.isNaN(lastTimestamp)) {
+      intervalMs.add((timestamp - lastTimestamp) * 1000.0);
+    }
+    lastTimestamp = timestamp;
+    waitMs.add(waitSeconds * 1000.0);
+    sampleCount++;
+    if (timedOut) timeoutCount++;
+    if (dropped) droppedCount++;
+  }
+
+  /** Records a sample where the signal at {@code frameIndex} did not return a valid value. */
+  public synchronized void recordSignalError(int frameIndex) {
+    signalErrorCounts[frameIndex]++;
+  }
+
+  /**
+   * Records the conversion from signal timestamps to FPGA time.
+   *
+   * @param timeBaseOffsetSeconds FPGA time minus the time base the signals are stamped in.
+   * @param correctionSeconds How far the frame timestamp was moved back from when the thread woke.
+   */
+  public synchronized void recordTimestampCorrection(
+      double timeBaseOffsetSeconds, double correctionSeconds) {
+    timeBaseOffsetSecs = timeBaseOffsetSeconds;
+    timestampCorrectionMs.add(correctionSeconds * 1000.0);
+  }
+
+  /** Records how long {@link Drive#odometryLock} was held. Only call from the main thread. */
+  public static void recordLockHold(double seconds) {
+    lockHoldMs.add(seconds * 1000.0);
+  }
+
+  /** Logs the measurements of every odometry thread. Call once per loop from the main thread. */
+  public static synchronized void logAll() {
+    logStatistics(lockHoldKeys, lockHoldMs);
+    Logger.recordOutput(
+        "Drive/OdometryThread/ExpectedIntervalMs", 1000.0 / DriveConstants.odometryFrequency);
+    for (int i = 0; i < instances.size(); i++) {
+      instances.get(i).log();
+    }
+  }
+
+  private synchronized void log() {
+    logStatistics(intervalKeys, intervalMs);
+    logStatistics(waitKeys, waitMs);
+    logStatistics(timestampCorrectionKeys, timestampCorrectionMs);
+    Logger.recordOutput(timeBaseOffsetKey, timeBaseOffsetSecs);
+    Logger.recordOutput(sampleCountKey, sampleCount);
+    Logger.recordOutput(timeoutCountKey, timeoutCount);
+    // Frames are dropped as a unit, so every signal loses the same samples
+    Logger.recordOutput(droppedCountKey, droppedCount);
+    for (int i = OdometryFrameBuffer.gyroYawIndex; i < frameIndexNames.length; i++) {
+      Logger.recordOutput(signalErrorKeys[i], signalErrorCounts[i]);
+    }
+  }
+
+  /** Returns the keys {@link #logStatistics} logs a statistic under. */
+  private static String[] statisticKeys(String key) {
+    return new String[] {key + "/P50", key + "/P99", key + "/Max"};
+  }
+
+  private static void logStatistics(String[] keys, RollingStatistics statistics) {
+    Logger.recordOutput(keys[0], statistics.getPercentile(0.5));
+    Logger.recordOutput(keys[1], statistics.getPercentile(0.99));
+    Logger.recordOutput(keys[2], statistics.getMax());
+  }
+}
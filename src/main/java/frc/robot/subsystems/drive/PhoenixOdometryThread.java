@@ -9,61 +9,90 @@ package frc.robot.subsystems.drive;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
-import com.ctre.phoenix6.hardware.ParentDevice;
+import com.ctre.phoenix6.Utils;
 import frc.robot.Constants;
-import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.littletonrobotics.junction.Logger;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements into {@link
+ * Drive#odometryFrames}.
  *
- * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. When using
- * a CANivore, the thread uses the "waitForAll" blocking method to enable more consistent sampling.
- * This also allows Phoenix Pro users to benefit from lower latency between devices using CANivore
- * time synchronization.
+ * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. Each CAN
+ * bus gets its own thread, so devices on one bus never change how another bus is sampled. When
+ * using a CANivore, the thread uses the "waitForAll" blocking method to enable more consistent
+ * sampling. This also allows Phoenix Pro users to benefit from lower latency between devices using
+ * CANivore time synchronization. A thread is only started once its first signal is registered, so
+ * a bus without odometry devices never publishes frames.
  */
 public class PhoenixOdometryThread extends Thread {
   private final Lock signalsLock =
       new ReentrantLock(); // Prevents conflicts when registering signals
   private BaseStatusSignal[] signals = new BaseStatusSignal[0];
-  private final List<Queue<Double>> queues = new ArrayList<>();
-  private boolean isCANFD = false;
+  private int[] frameIndices = new int[0];
+  private double[] scales = new double[0];
+  private final double[] frame = new double[OdometryFrameBuffer.frameLength];
+  private final boolean isCANFD;
+  private final OdometryFrameBuffer frames;
+  private final OdometryThreadStats stats;
 
-  private static PhoenixOdometryThread instance = null;
+  private static final Map<String, PhoenixOdometryThread> instances = new HashMap<>();
 
-  public static PhoenixOdometryThread getInstance() {
-    if (instance == null) {
-      instance = new PhoenixOdometryThread();
-    }
-    return instance;
+  /** Returns the odometry thread for a CAN bus, as given by {@code ParentDevice.getNetwork()}. */
+  public static PhoenixOdometryThread getInstance(String canBus) {
+    return instances.computeIfAbsent(canBus, PhoenixOdometryThread::new);
   }
 
-  private PhoenixOdometryThread() {
-    setName("PhoenixOdometryThread");
+  private PhoenixOdometryThread(String canBus) {
+    String busName = canBus.isEmpty() ? "rio" : canBus;
+    isCANFD = CANBus.isNetworkFD(canBus);
+    Drive.odometryLock.lock();
+    try {
+      frames = Drive.odometryFrames.createSource(OdometryFrameBuffer.defaultCapacity);
+    } finally {
+      Drive.odometryLock.unlock();
+    }
+    stats = new OdometryThreadStats("Phoenix-" + busName);
+    setName("PhoenixOdometryThread-" + busName);
     setDaemon(true);
-    start();
   }
 
-  public Queue<Double> registerSignal(ParentDevice device, StatusSignal<Double> signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
+  /**
+   * Registers a signal to be sampled into every odometry frame.
+   *
+   * @param frameIndex Index within the frame, from {@link OdometryFrameBuffer}.
+   * @param scale Factor converting the signal value to meters or radians.
+   */
+  public void registerSignal(StatusSignal<Double> signal, int frameIndex, double scale) {
     signalsLock.lock();
     Drive.odometryLock.lock();
     try {
-      isCANFD = CANBus.isNetworkFD(device.getNetwork());
+      frames.addSignalIndex(frameIndex);
       BaseStatusSignal[] newSignals = new BaseStatusSignal[signals.length + 1];
       System.arraycopy(signals, 0, newSignals, 0, signals.length);
       newSignals[signals.length] = signal;
+      int[] newFrameIndices = new int[frameIndices.length + 1];
+      System.arraycopy(frameIndices, 0, newFrameIndices, 0, frameIndices.length);
+      newFrameIndices[frameIndices.length] = frameIndex;
+      double[] newScales = new double[scales.length + 1];
+      System.arraycopy(scales, 0, newScales, 0, scales.length);
+      newScales[scales.length] = scale;
       signals = newSignals;
-      queues.add(queue);
+      frameIndices = newFrameIndices;
+      scales = newScales;
+      if (signals.length == 1) {
+        // Frames with no signals would still move the merged timeline forward
+        start();
+      }
     } finally {
       signalsLock.unlock();
       Drive.odometryLock.unlock();
     }
-    return queue;
   }
 
   @Override
@@ -72,28 +101,63 @@ public class PhoenixOdometryThread extends Thread {
       // Wait for updates from all signals
       signalsLock.lock();
       try {
+        long waitStart = System.nanoTime();
+        StatusCode status = StatusCode.OK;
         if (isCANFD) {
-          BaseStatusSignal.waitForAll(Constants.loopPeriodSecs, signals);
+          status = BaseStatusSignal.waitForAll(Constants.loopPeriodSecs, signals);
         } else {
           Thread.sleep((long) (1000.0 / DriveConstants.odometryFrequency));
-          if (signals.length > 0) BaseStatusSignal.refreshAll(signals);
+          status = BaseStatusSignal.refreshAll(signals);
         }
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      } finally {
-        signalsLock.unlock();
-      }
-      double fpgaTimestamp = Logger.getRealTimestamp() / 1.0e6;
+        double waitSeconds = (System.nanoTime() - waitStart) / 1.0e9;
 
-      // Save new data to queues
-      Drive.odometryLock.lock();
-      try {
+        // Offset from the Phoenix time base to FPGA time
+        double fpgaTimestamp = Logger.getRealTimestamp() / 1.0e6;
+        double timeBaseOffset = fpgaTimestamp - Utils.getCurrentTimeSeconds();
+
+        // Save new data as a single frame, stamped with when the signals were actually sampled
+        double totalSignalTime = 0.0;
+        int validTimestamps = 0;
+        boolean gyroValid = false;
         for (int i = 0; i < signals.length; i++) {
-          queues.get(i).offer(signals[i].getValueAsDouble());
+          frame[frameIndices[i]] = signals[i].getValueAsDouble() * scales[i];
+          boolean signalValid = signals[i].getStatus().isOK();
+          if (!signalValid) {
+            stats.recordSignalError(frameIndices[i]);
+          } else if (frameIndices[i] == OdometryFrameBuffer.gyroYawIndex) {
+            gyroValid = true;
+          }
+          var signalTimestamp = signals[i].getTimestamp();
+          if (signalTimestamp.isValid()) {
+            totalSignalTime += signalTimestamp.getTime();
+            validTimestamps++;
+          }
+        }
+        if (validTimestamps > 0) {
+          frame[OdometryFrameBuffer.timestampIndex] =
+              totalSignalTime / validTimestamps + timeBaseOffset;
+        } else {
+          frame[OdometryFrameBuffer.timestampIndex] = fpgaTimestamp;
+        }
+        stats.recordTimestampCorrection(
+            timeBaseOffset, fpgaTimestamp - frame[OdometryFrameBuffer.timestampIndex]);
+        // Only integrate frames the main loop will also receive, so both see the same samples
+        boolean dropped = frames.isFull();
+        if (!dropped) {
+          if (DriveConstants.highRateOdometry) {
+            Drive.highRateOdometry.integrate(frame, frames, gyroValid);
+          }
+          frames.offer(frame);
         }
-        Drive.timestampQueue.offer(fpgaTimestamp);
+        stats.recordSample(
+            frame[OdometryFrameBuffer.timestampIndex],
+            waitSeconds,
+            status == StatusCode.RxTimeout,
+            dropped);
+      } catch (InterruptedException e) {
+        e.printStackTrace();
       } finally {
-        Drive.odometryLock.unlock();
+        signalsLock.unlock();
       }
     }
   }
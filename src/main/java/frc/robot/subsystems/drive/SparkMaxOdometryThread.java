@@ -8,22 +8,28 @@
 package frc.robot.subsystems.drive;
 
 import edu.wpi.first.wpilibj.Notifier;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.DoubleSupplier;
 import org.littletonrobotics.junction.Logger;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements into {@link
+ * Drive#odometryFrames}.
  *
  * <p>This version is intended for devices like the SparkMax that require polling rather than a
- * blocking thread. A Notifier thread is used to gather samples with consistent timing.
+ * blocking thread. A Notifier thread is used to gather samples with consistent timing, started
+ * once the first signal is registered.
  */
 public class SparkMaxOdometryThread {
-  private List<DoubleSupplier> signals = new ArrayList<>();
-  private List<Queue<Double>> queues = new ArrayList<>();
+  private final Lock signalsLock =
+      new ReentrantLock(); // Prevents conflicts when registering signals
+  private DoubleSupplier[] signals = new DoubleSupplier[0];
+  private int[] frameIndices = new int[0];
+  private boolean hasGyro = false;
+  private final double[] frame = new double[OdometryFrameBuffer.frameLength];
+  private final OdometryFrameBuffer frames;
+  private final OdometryThreadStats stats = new OdometryThreadStats("SparkMax");
   private final Notifier notifier;
   private static SparkMaxOdometryThread instance = null;
 
@@ -35,32 +41,66 @@ public class SparkMaxOdometryThread {
   }
 
   private SparkMaxOdometryThread() {
+    Drive.odometryLock.lock();
+    try {
+      frames = Drive.odometryFrames.createSource(OdometryFrameBuffer.defaultCapacity);
+    } finally {
+      Drive.odometryLock.unlock();
+    }
     notifier = new Notifier(this::periodic);
     notifier.setName("SparkMaxOdometryThread");
-    notifier.startPeriodic(1.0 / DriveConstants.odometryFrequency);
   }
 
-  public Queue<Double> registerSignal(DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
+  /**
+   * Registers a signal to be sampled into every odometry frame.
+   *
+   * @param signal Supplier of the signal value in meters or radians.
+   * @param frameIndex Index within the frame, from {@link OdometryFrameBuffer}.
+   */
+  public void registerSignal(DoubleSupplier signal, int frameIndex) {
+    signalsLock.lock();
     Drive.odometryLock.lock();
     try {
-      signals.add(signal);
-      queues.add(queue);
+      frames.addSignalIndex(frameIndex);
+      DoubleSupplier[] newSignals = new DoubleSupplier[signals.length + 1];
+      System.arraycopy(signals, 0, newSignals, 0, signals.length);
+      newSignals[signals.length] = signal;
+      int[] newFrameIndices = new int[frameIndices.length + 1];
+      System.arraycopy(frameIndices, 0, newFrameIndices, 0, frameIndices.length);
+      newFrameIndices[frameIndices.length] = frameIndex;
+      signals = newSignals;
+      frameIndices = newFrameIndices;
+      hasGyro |= frameIndex == OdometryFrameBuffer.gyroYawIndex;
+      if (signals.length == 1) {
+        notifier.startPeriodic(1.0 / DriveConstants.odometryFrequency);
+      }
     } finally {
+      signalsLock.unlock();
       Drive.odometryLock.unlock();
     }
-    return queue;
   }
 
   private void periodic() {
-    Drive.odometryLock.lock();
-    Drive.timestampQueue.offer(Logger.getRealTimestamp() / 1.0e6);
+    signalsLock.lock();
     try {
-      for (int i = 0; i < signals.size(); i++) {
-        queues.get(i).offer(signals.get(i).getAsDouble());
+      long readStart = System.nanoTime();
+      frame[OdometryFrameBuffer.timestampIndex] = Logger.getRealTimestamp() / 1.0e6;
+      for (int i = 0; i < signals.length; i++) {
+        frame[frameIndices[i]] = signals[i].getAsDouble();
       }
+      double readSeconds = (System.nanoTime() - readStart) / 1.0e9;
+      // Only integrate frames the main loop will also receive, so both see the same samples
+      boolean dropped = frames.isFull();
+      if (!dropped) {
+        if (DriveConstants.highRateOdometry) {
+          Drive.highRateOdometry.integrate(frame, frames, hasGyro);
+        }
+        frames.offer(frame);
+      }
+      // Polling has no blocking wait, so record the time spent reading the signals instead
+      stats.recordSample(frame[OdometryFrameBuffer.timestampIndex], readSeconds, false, dropped);
     } finally {
-      Drive.odometryLock.unlock();
+      signalsLock.unlock();
     }
   }
 }
@@ -75,7 +75,7 @@ public class HeadingController {
 
     var output =
         controller.calculate(
-            RobotState.getInstance().getEstimatedPose().getRotation().getRadians(),
+            RobotState.getInstance().getLatestPose().getRotation().getRadians(),
             goalHeadingSupplier.get().getRadians());
 
     Logger.recordOutput("Drive/HeadingController/HeadingError", controller.getPositionError());
@@ -10,9 +10,7 @@ package frc.robot.subsystems.drive.controllers;
 import static frc.robot.subsystems.drive.DriveConstants.driveConfig;
 
 import edu.wpi.first.math.MathUtil;
-import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj.DriverStation;
@@ -81,17 +79,15 @@ public class TeleopDriveController {
 
   public static Translation2d calcLinearVelocity(double x, double y) {
     // Apply deadband
-    double linearMagnitude = MathUtil.applyDeadband(Math.hypot(x, y), controllerDeadband.get());
-    Rotation2d linearDirection = new Rotation2d(x, y);
-
-    // Square magnitude
-    linearMagnitude = linearMagnitude * linearMagnitude;
+    double magnitude = Math.hypot(x, y);
+    double linearMagnitude = MathUtil.applyDeadband(magnitude, controllerDeadband.get());
+    if (linearMagnitude == 0.0) {
+      // No direction to keep, and a zero Rotation2d reports an error every cycle
+      return new Translation2d();
+    }
 
-    // Calcaulate new linear velocity
-    Translation2d linearVelocity =
-        new Pose2d(new Translation2d(), linearDirection)
-            .transformBy(new Transform2d(linearMagnitude, 0.0, new Rotation2d()))
-            .getTranslation();
-    return linearVelocity;
+    // Square magnitude, keeping the stick direction
+    double scale = linearMagnitude * linearMagnitude / magnitude;
+    return new Translation2d(x * scale, y * scale);
   }
 }
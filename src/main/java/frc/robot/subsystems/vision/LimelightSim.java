@@ -0,0 +1,323 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringPublisher;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.FieldConstants;
+import frc.robot.FieldConstants.StagingLocations;
+import frc.robot.RobotState;
+import frc.robot.util.VirtualSubsystem;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Stands in for a Limelight in simulation, publishing the same NetworkTables entries as the device
+ * from the simulated pose.
+ *
+ * <p>Frames are captured at the configured frame rate and published after the configured latency.
+ * An AprilTag camera publishes botpose_orb_wpiblue with every visible tag, tx/ty/ta/tid for the
+ * largest tag and a json dump. A note camera publishes tx/ty/ta and a json dump for the largest
+ * staged note. Simulated wheels never slip, so the odometry pose is used as the true pose.
+ */
+public class LimelightSim extends VirtualSubsystem {
+  private static final double maxTagDistance = 7.0; // Meters
+  private static final double noteDiameter = 0.36; // Meters
+  private static final double noteHeight = 0.025; // Meters
+  private static final int valuesPerFiducial = 7;
+
+  /**
+   * Camera model.
+   *
+   * @param horizontalFovDegrees Horizontal field of view.
+   * @param verticalFovDegrees Vertical field of view.
+   * @param framesPerSecond Capture rate, limited to the loop rate.
+   * @param latencySecs Time from capture to publishing.
+   * @param xyStdDevPerMeter Std dev of pose noise per meter of average tag distance.
+   * @param detectNotes Whether the camera runs a note detector instead of AprilTags.
+   */
+  public record Config(
+      double horizontalFovDegrees,
+      double verticalFovDegrees,
+      double framesPerSecond,
+      double latencySecs,
+      double xyStdDevPerMeter,
+      boolean detectNotes) {
+    public static final Config limelight3AprilTags =
+        new Config(
+            VisionConstants.limelightHorizontalFov,
+            VisionConstants.limelightVerticalFov,
+            50.0,
+            0.03,
+            0.02,
+            false);
+    public static final Config limelight3Notes =
+        new Config(
+            VisionConstants.limelightHorizontalFov,
+            VisionConstants.limelightVerticalFov,
+            50.0,
+            0.04,
+            0.0,
+            true);
+  }
+
+  private record Frame(
+      double captureTime,
+      double[] botpose,
+      double tx,
+      double ty,
+      double ta,
+      double tid,
+      int count) {}
+
+  private final VisionConstants.Camera camera;
+  private final Config config;
+  private final Random random;
+  private final Queue<Frame> pendingFrames = new ArrayDeque<>();
+  private double nextCaptureTime = 0.0;
+
+  private final DoubleArrayPublisher botposePublisher;
+  private final DoublePublisher txPublisher;
+  private final DoublePublisher tyPublisher;
+  private final DoublePublisher taPublisher;
+  private final DoublePublisher tidPublisher;
+  private final DoublePublisher tvPublisher;
+  private final DoublePublisher tlPublisher;
+  private final DoublePublisher clPublisher;
+  private final StringPublisher jsonPublisher;
+
+  public LimelightSim(VisionConstants.Camera camera, Config config) {
+    this.camera = camera;
+    this.config = config;
+    random = new Random(camera.name().hashCode());
+
+    NetworkTable table = NetworkTableInstance.getDefault().getTable(camera.name());
+    botposePublisher = table.getDoubleArrayTopic("botpose_orb_wpiblue").publish();
+    txPublisher = table.getDoubleTopic("tx").publish();
+    tyPublisher = table.getDoubleTopic("ty").publish();
+    taPublisher = table.getDoubleTopic("ta").publish();
+    tidPublisher = table.getDoubleTopic("tid").publish();
+    tvPublisher = table.getDoubleTopic("tv").publish();
+    tlPublisher = table.getDoubleTopic("tl").publish();
+    clPublisher = table.getDoubleTopic("cl").publish();
+    jsonPublisher = table.getStringTopic("json").publish();
+  }
+
+  @Override
+  public void periodic() {
+    double now = Timer.getFPGATimestamp();
+    if (now >= nextCaptureTime) {
+      pendingFrames.add(config.detectNotes() ? captureNotes(now) : captureTags(now));
+      double period = 1.0 / config.framesPerSecond();
+      nextCaptureTime = Math.max(nextCaptureTime + period, now);
+    }
+    while (!pendingFrames.isEmpty()
+        && now - pendingFrames.peek().captureTime() >= config.latencySecs()) {
+      publish(pendingFrames.poll(), now);
+    }
+  }
+
+  private Frame captureTags(double now) {
+    Pose3d robotPose = new Pose3d(RobotState.getInstance().getOdometryPose());
+    Pose3d cameraPose = robotPose.transformBy(camera.robotToCamera().get());
+    var tags = FieldConstants.bundledAprilTagLayout.getTags();
+    double[] fiducials = new double[tags.size() * valuesPerFiducial];
+    Translation3d[] tagTranslations = new Translation3d[tags.size()];
+    int count = 0;
+    double distanceSum = 0.0;
+    double areaSum = 0.0;
+    double bestTx = 0.0, bestTy = 0.0, bestTa = 0.0, bestId = -1.0;
+
+    for (AprilTag tag : tags) {
+      // Only tags facing the camera, inside the field of view and close enough are seen
+      if (cameraPose.relativeTo(tag.pose).getX() <= 0.0) continue;
+      Translation3d inCamera = tag.pose.relativeTo(cameraPose).getTranslation();
+      if (inCamera.getX() <= 0.0) continue;
+      double tx = -Math.toDegrees(Math.atan2(inCamera.getY(), inCamera.getX()));
+      double ty = Math.toDegrees(Math.atan2(inCamera.getZ(), inCamera.getX()));
+      double distance = inCamera.getNorm();
+      if (Math.abs(tx) > config.horizontalFovDegrees() / 2.0
+          || Math.abs(ty) > config.verticalFovDegrees() / 2.0
+          || distance > maxTagDistance) {
+        continue;
+      }
+      double ta = getArea(FieldConstants.aprilTagWidth, distance);
+
+      int base = count * valuesPerFiducial;
+      fiducials[base] = tag.ID;
+      fiducials[base + 1] = tx;
+      fiducials[base + 2] = ty;
+      fiducials[base + 3] = ta;
+      fiducials[base + 4] = distance;
+      fiducials[base + 5] = tag.pose.getTranslation().getDistance(robotPose.getTranslation());
+      fiducials[base + 6] = Math.min(1.0, 0.05 * distance); // Far tags are more ambiguous
+      tagTranslations[count] = tag.pose.getTranslation();
+      count++;
+      distanceSum += distance;
+      areaSum += ta;
+      if (ta > bestTa) {
+        bestTx = tx;
+        bestTy = ty;
+        bestTa = ta;
+        bestId = tag.ID;
+      }
+    }
+
+    double[] botpose = new double[11 + count * valuesPerFiducial];
+    if (count > 0) {
+      double averageDistance = distanceSum / count;
+      double stdDev = config.xyStdDevPerMeter() * averageDistance / Math.sqrt(count);
+      double span = 0.0;
+      for (int i = 0; i < count; i++) {
+        for (int j = i + 1; j < count; j++) {
+          span = Math.max(span, tagTranslations[i].getDistance(tagTranslations[j]));
+        }
+      }
+      botpose[0] = robotPose.getX() + random.nextGaussian() * stdDev;
+      botpose[1] = robotPose.getY() + random.nextGaussian() * stdDev;
+      botpose[5] = Math.toDegrees(robotPose.getRotation().getZ());
+      botpose[7] = count;
+      botpose[8] = span;
+      botpose[9] = averageDistance;
+      botpose[10] = areaSum / count;
+      System.arraycopy(fiducials, 0, botpose, 11, count * valuesPerFiducial);
+    }
+    return new Frame(now, botpose, bestTx, bestTy, bestTa, bestId, count);
+  }
+
+  private Frame captureNotes(double now) {
+    Pose3d cameraPose =
+        new Pose3d(RobotState.getInstance().getOdometryPose())
+            .transformBy(camera.robotToCamera().get());
+    double bestTx = 0.0, bestTy = 0.0, bestTa = 0.0;
+    int count = 0;
+    for (Translation2d[] notes :
+        new Translation2d[][] {
+          StagingLocations.spikeTranslations, StagingLocations.centerlineTranslations
+        }) {
+      for (Translation2d note : notes) {
+        for (boolean red : new boolean[] {false, true}) {
+          if (red && note.getX() == StagingLocations.centerlineX) continue;
+          double x = red ? FieldConstants.fieldLength - note.getX() : note.getX();
+          Translation3d inCamera =
+              new Pose3d(new Translation3d(x, note.getY(), noteHeight), new Rotation3d())
+                  .relativeTo(cameraPose)
+                  .getTranslation();
+          if (inCamera.getX() <= 0.0) continue;
+          double tx = -Math.toDegrees(Math.atan2(inCamera.getY(), inCamera.getX()));
+          double ty = Math.toDegrees(Math.atan2(inCamera.getZ(), inCamera.getX()));
+          if (Math.abs(tx) > config.horizontalFovDegrees() / 2.0
+              || Math.abs(ty) > config.verticalFovDegrees() / 2.0) {
+            continue;
+          }
+          double ta = getArea(noteDiameter, inCamera.getNorm());
+          count++;
+          if (ta > bestTa) {
+            bestTx = tx;
+            bestTy = ty;
+            bestTa = ta;
+          }
+        }
+      }
+    }
+    return new Frame(now, new double[11], bestTx, bestTy, bestTa, -1.0, count);
+  }
+
+  /** Returns the percent of the image taken up by a square of the given width. */
+  private double getArea(double width, double distance) {
+    double angularWidth = width / distance;
+    return 100.0
+        * angularWidth
+        * angularWidth
+        / (Math.toRadians(config.horizontalFovDegrees())
+            * Math.toRadians(config.verticalFovDegrees()));
+  }
+
+  private void publish(Frame frame, double now) {
+    double latencyMs = (now - frame.captureTime()) * 1000.0;
+    frame.botpose()[6] = latencyMs;
+    boolean valid = frame.count() > 0;
+
+    tlPublisher.set(latencyMs);
+    clPublisher.set(0.0);
+    tvPublisher.set(valid ? 1.0 : 0.0);
+    txPublisher.set(valid ? frame.tx() : 0.0);
+    tyPublisher.set(valid ? frame.ty() : 0.0);
+    taPublisher.set(valid ? frame.ta() : 0.0);
+    tidPublisher.set(frame.tid());
+    botposePublisher.set(frame.botpose());
+    jsonPublisher.set(toJson(frame, latencyMs, valid));
+  }
+
+  /** Builds the subset of the json dump that {@link frc.robot.LimelightHelpers} parses. */
+  private String toJson(Frame frame, double latencyMs, boolean valid) {
+    double[] botpose = frame.botpose();
+    StringBuilder json = new StringBuilder(256);
+    json.append("{\"Results\":{\"pID\":0,\"tl\":")
+        .append(latencyMs)
+        .append(",\"cl\":0,\"ts\":")
+        .append(frame.captureTime() * 1000.0)
+        .append(",\"ts_rio\":")
+        .append(frame.captureTime() * 1000.0)
+        .append(",\"v\":")
+        .append(valid ? 1 : 0)
+        .append(",\"botpose_wpiblue\":[");
+    for (int i = 0; i < 6; i++) {
+      if (i > 0) json.append(',');
+      json.append(botpose[i]);
+    }
+    json.append("],\"botpose_tagcount\":")
+        .append(botpose[7])
+        .append(",\"botpose_span\":")
+        .append(botpose[8])
+        .append(",\"botpose_avgdist\":")
+        .append(botpose[9])
+        .append(",\"botpose_avgarea\":")
+        .append(botpose[10]);
+    if (config.detectNotes()) {
+      json.append(",\"Detector\":[");
+      if (valid) {
+        json.append("{\"class\":\"note\",\"classID\":0,\"conf\":0.9,\"ta\":")
+            .append(frame.ta())
+            .append(",\"tx\":")
+            .append(frame.tx())
+            .append(",\"ty\":")
+            .append(frame.ty())
+            .append('}');
+      }
+    } else {
+      json.append(",\"Fiducial\":[");
+      int tags = (botpose.length - 11) / valuesPerFiducial;
+      for (int i = 0; i < tags; i++) {
+        int base = 11 + i * valuesPerFiducial;
+        if (i > 0) json.append(',');
+        json.append("{\"fID\":")
+            .append((int) botpose[base])
+            .append(",\"fam\":\"36H11C\",\"tx\":")
+            .append(botpose[base + 1])
+            .append(",\"ty\":")
+            .append(botpose[base + 2])
+            .append(",\"ta\":")
+            .append(botpose[base + 3])
+            .append('}');
+      }
+    }
+    return json.append("]}}").toString();
+  }
+}
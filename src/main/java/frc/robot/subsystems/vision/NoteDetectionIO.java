@@ -0,0 +1,24 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import org.littletonrobotics.junction.AutoLog;
+
+/** IO for the note detections of the intake camera. Inputs hold the latest frame. */
+public interface NoteDetectionIO {
+  @AutoLog
+  class NoteDetectionIOInputs {
+    // Time the latest frame was captured, in FPGA seconds, zero before the first frame
+    public double captureTimestamp = 0.0;
+    // Angles to the note in degrees, NaN when the frame has no note
+    public double tx = Double.NaN;
+    public double ty = Double.NaN;
+  }
+
+  default void updateInputs(NoteDetectionIOInputs inputs) {}
+}
@@ -0,0 +1,22 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import static frc.robot.Subsystems.limelightIntake;
+
+/** IO implementation for the intake Limelight, or its {@link LimelightSim} in simulation. */
+public class NoteDetectionIOLimelight implements NoteDetectionIO {
+  @Override
+  public void updateInputs(NoteDetectionIOInputs inputs) {
+    double frameTimestamp = limelightIntake.getLatestTimestamp();
+    inputs.captureTimestamp =
+        frameTimestamp == 0.0 ? 0.0 : frameTimestamp - limelightIntake.getLatencySecs();
+    inputs.tx = limelightIntake.getTX();
+    inputs.ty = limelightIntake.getTY();
+  }
+}
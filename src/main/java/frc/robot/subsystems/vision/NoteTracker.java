@@ -0,0 +1,196 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.FieldConstants;
+import frc.robot.RobotState;
+import frc.robot.util.LoggedTunableNumber;
+import frc.robot.util.VirtualSubsystem;
+import java.util.Arrays;
+import java.util.Optional;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Keeps a short-lived map of field relative note positions from the intake camera, so commands can
+ * drive to a note without waiting for the camera to see it again. Detections only come from {@link
+ * NoteDetectionIO} inputs, so the map is rebuilt the same way in replay.
+ *
+ * <p>Each detection is projected onto the floor using {@link VisionConstants#intakeCamera} and the
+ * estimated pose when the frame was captured. A detection within {@link #associationDistance} of a
+ * tracked note updates it, otherwise it starts a new one. Confidence grows with every detection and
+ * decays while a note is not seen, and notes are dropped once it reaches zero.
+ */
+public class NoteTracker extends VirtualSubsystem {
+  private static final int maxNotes = 8;
+  private static final double noteHeight = 0.025; // Height of the center of a note, meters
+  private static final double maxDetectionDistance = 4.0; // Meters from the camera
+
+  private static final LoggedTunableNumber associationDistance =
+      new LoggedTunableNumber("NoteTracker/AssociationDistanceMeters", 0.5);
+  private static final LoggedTunableNumber smoothing =
+      new LoggedTunableNumber("NoteTracker/PositionSmoothing", 0.3);
+  private static final LoggedTunableNumber confidenceGain =
+      new LoggedTunableNumber("NoteTracker/ConfidenceGain", 0.25);
+  private static final LoggedTunableNumber confidenceDecayPerSec =
+      new LoggedTunableNumber("NoteTracker/ConfidenceDecayPerSec", 0.75);
+  private static final LoggedTunableNumber minReachableConfidence =
+      new LoggedTunableNumber("NoteTracker/MinReachableConfidence", 0.4);
+
+  private final NoteDetectionIO io;
+  private final NoteDetectionIOInputsAutoLogged inputs = new NoteDetectionIOInputsAutoLogged();
+  private final double[] noteX = new double[maxNotes];
+  private final double[] noteY = new double[maxNotes];
+  private final double[] confidence = new double[maxNotes];
+  private int noteCount = 0;
+  private double lastCaptureTimestamp = 0.0;
+  private double lastPeriodicTimestamp = Double.NaN;
+
+  public NoteTracker(NoteDetectionIO io) {
+    this.io = io;
+  }
+
+  @Override
+  public void periodic() {
+    io.updateInputs(inputs);
+    Logger.processInputs("NoteTracker", inputs);
+    double now = Timer.getFPGATimestamp();
+    double dt = Double.isNaN(lastPeriodicTimestamp) ? 0.0 : now - lastPeriodicTimestamp;
+    lastPeriodicTimestamp = now;
+
+    // Decay every note, dropping those that reach zero
+    double decay = confidenceDecayPerSec.get() * dt;
+    for (int i = noteCount - 1; i >= 0; i--) {
+      confidence[i] -= decay;
+      if (confidence[i] <= 0.0) {
+        remove(i);
+      }
+    }
+
+    if (inputs.captureTimestamp != lastCaptureTimestamp) {
+      lastCaptureTimestamp = inputs.captureTimestamp;
+      if (!Double.isNaN(inputs.tx) && !Double.isNaN(inputs.ty)) {
+        addDetection(inputs.tx, inputs.ty, inputs.captureTimestamp);
+      }
+    }
+
+    Translation2d[] notes = new Translation2d[noteCount];
+    for (int i = 0; i < noteCount; i++) {
+      notes[i] = new Translation2d(noteX[i], noteY[i]);
+    }
+    Logger.recordOutput("NoteTracker/Notes", notes);
+    Logger.recordOutput("NoteTracker/Confidences", Arrays.copyOf(confidence, noteCount));
+  }
+
+  /**
+   * Projects a detection onto the floor and adds it to the map.
+   *
+   * @param tx Horizontal angle to the note, in degrees, positive to the right.
+   * @param ty Vertical angle to the note, in degrees, positive up.
+   * @param timestamp Time the frame was captured.
+   */
+  private void addDetection(double tx, double ty, double timestamp) {
+    Optional<Pose2d> robotPose = RobotState.getInstance().getEstimatedPoseAt(timestamp);
+    if (robotPose.isEmpty()) {
+      return;
+    }
+
+    // Ray from the camera through the detection, in robot coordinates
+    var robotToCamera = VisionConstants.intakeCamera.robotToCamera().get();
+    Translation3d ray =
+        new Translation3d(1.0, -Math.tan(Math.toRadians(tx)), Math.tan(Math.toRadians(ty)))
+            .rotateBy(robotToCamera.getRotation());
+    if (ray.getZ() >= -1e-3) {
+      return; // At or above the horizon
+    }
+    double scale = (noteHeight - robotToCamera.getZ()) / ray.getZ();
+    if (ray.getNorm() * scale > maxDetectionDistance) {
+      return;
+    }
+    Translation2d fieldPosition =
+        new Translation2d(
+                robotToCamera.getX() + ray.getX() * scale,
+                robotToCamera.getY() + ray.getY() * scale)
+            .rotateBy(robotPose.get().getRotation())
+            .plus(robotPose.get().getTranslation());
+
+    // Update the nearest tracked note, or start tracking a new one
+    int nearest = -1;
+    double nearestDistance = associationDistance.get();
+    for (int i = 0; i < noteCount; i++) {
+      double distance =
+          Math.hypot(noteX[i] - fieldPosition.getX(), noteY[i] - fieldPosition.getY());
+      if (distance <= nearestDistance) {
+        nearest = i;
+        nearestDistance = distance;
+      }
+    }
+    if (nearest >= 0) {
+      double alpha = smoothing.get();
+      noteX[nearest] += (fieldPosition.getX() - noteX[nearest]) * alpha;
+      noteY[nearest] += (fieldPosition.getY() - noteY[nearest]) * alpha;
+      confidence[nearest] = Math.min(1.0, confidence[nearest] + confidenceGain.get());
+      return;
+    }
+    if (noteCount == maxNotes) {
+      // Replace the least confident note
+      int weakest = 0;
+      for (int i = 1; i < noteCount; i++) {
+        if (confidence[i] < confidence[weakest]) weakest = i;
+      }
+      remove(weakest);
+    }
+    noteX[noteCount] = fieldPosition.getX();
+    noteY[noteCount] = fieldPosition.getY();
+    confidence[noteCount] = confidenceGain.get();
+    noteCount++;
+  }
+
+  private void remove(int index) {
+    noteCount--;
+    noteX[index] = noteX[noteCount];
+    noteY[index] = noteY[noteCount];
+    confidence[index] = confidence[noteCount];
+  }
+
+  /**
+   * Returns the tracked note closest to the robot that is on the field and confident enough to
+   * drive to, or empty if there is none.
+   */
+  public Optional<Translation2d> getNearestNote() {
+    Translation2d robot = RobotState.getInstance().getEstimatedPose().getTranslation();
+    int nearest = -1;
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < noteCount; i++) {
+      if (confidence[i] < minReachableConfidence.get()
+          || noteX[i] < 0.0
+          || noteX[i] > FieldConstants.fieldLength
+          || noteY[i] < 0.0
+          || noteY[i] > FieldConstants.fieldWidth) {
+        continue;
+      }
+      double distance = Math.hypot(noteX[i] - robot.getX(), noteY[i] - robot.getY());
+      if (distance < nearestDistance) {
+        nearest = i;
+        nearestDistance = distance;
+      }
+    }
+    return nearest < 0
+        ? Optional.empty()
+        : Optional.of(new Translation2d(noteX[nearest], noteY[nearest]));
+  }
+
+  /** Forgets every tracked note, for example after picking one up. */
+  public void clear() {
+    noteCount = 0;
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.LimelightHelpers.PoseEstimate;
+import frc.robot.LimelightHelpers.RawFiducial;
+import frc.robot.util.LoopProfiler;
+import java.util.ArrayList;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Logs the inputs of every camera in {@link VisionConstants#cameras} and rebuilds their frames from
+ * those inputs, so pose estimation gives the same result when replayed from a log.
+ */
+public class Vision extends SubsystemBase {
+  /**
+   * A frame from one camera.
+   *
+   * @param camera Index of the camera in {@link VisionConstants#cameras}.
+   */
+  public record Frame(int camera, PoseEstimate estimate) {}
+
+  private final VisionIO[] io;
+  private final VisionIOInputsAutoLogged[] inputs;
+  private final String[] inputKeys;
+  private final List<Frame> frames = new ArrayList<>();
+
+  /**
+   * Creates a new vision subsystem.
+   *
+   * @param io IO for each camera, in the order of {@link VisionConstants#cameras}.
+   */
+  public Vision(VisionIO... io) {
+    this.io = io;
+    inputs = new VisionIOInputsAutoLogged[io.length];
+    inputKeys = new String[io.length];
+    for (int i = 0; i < io.length; i++) {
+      inputs[i] = new VisionIOInputsAutoLogged();
+      inputKeys[i] = "Vision/" + VisionConstants.cameras[i].name();
+    }
+  }
+
+  @Override
+  public void periodic() {
+    LoopProfiler.push("Vision");
+    try {
+      frames.clear();
+      for (int i = 0; i < io.length; i++) {
+        io[i].updateInputs(inputs[i]);
+        Logger.processInputs(inputKeys[i], inputs[i]);
+
+        int fiducial = 0;
+        for (int frame = 0; frame < inputs[i].timestamps.length; frame++) {
+          RawFiducial[] rawFiducials = new RawFiducial[inputs[i].fiducialCounts[frame]];
+          for (int j = 0; j < rawFiducials.length; j++, fiducial++) {
+            int base = fiducial * VisionIO.valuesPerFiducial;
+            double[] raw = inputs[i].rawFiducials;
+            rawFiducials[j] =
+                new RawFiducial(
+                    inputs[i].tagIds[fiducial],
+                    raw[base],
+                    raw[base + 1],
+                    raw[base + 2],
+                    raw[base + 3],
+                    raw[base + 4],
+                    raw[base + 5]);
+          }
+          frames.add(
+              new Frame(
+                  i,
+                  new PoseEstimate(
+                      inputs[i].poses[frame],
+                      inputs[i].timestamps[frame],
+                      inputs[i].latencies[frame],
+                      inputs[i].tagCounts[frame],
+                      inputs[i].tagSpans[frame],
+                      inputs[i].averageTagDistances[frame],
+                      inputs[i].averageTagAreas[frame],
+                      rawFiducials)));
+        }
+      }
+    } finally {
+      LoopProfiler.pop();
+    }
+  }
+
+  /** Returns every frame received this cycle, from all cameras, in arrival order per camera. */
+  public List<Frame> getFrames() {
+    return frames;
+  }
+
+  /** Sends the robot heading to every camera, which MegaTag2 needs to solve for the pose. */
+  public void setRobotOrientation(double yawDegrees, double yawRateDegreesPerSec) {
+    for (VisionIO cameraIO : io) {
+      cameraIO.setRobotOrientation(yawDegrees, yawRateDegreesPerSec);
+    }
+  }
+}
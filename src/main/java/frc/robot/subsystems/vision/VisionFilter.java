@@ -0,0 +1,169 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.FieldConstants;
+import frc.robot.LimelightHelpers.PoseEstimate;
+import frc.robot.LimelightHelpers.RawFiducial;
+import frc.robot.RobotState;
+import frc.robot.subsystems.vision.Vision.Frame;
+import frc.robot.util.LoggedTunableNumber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Decides which vision frames are fused, by running each frame through a chain of checks until one
+ * rejects it. Every check counts the frames it accepted and rejected, logged under
+ * "Vision/Filter/{check}", so it is clear why frames are discarded during a match.
+ */
+public class VisionFilter {
+  private static final LoggedTunableNumber maxLatencySecs =
+      new LoggedTunableNumber("Vision/Filter/MaxLatencySecs", 0.5);
+  private static final LoggedTunableNumber minTagCount =
+      new LoggedTunableNumber("Vision/Filter/MinTagCount", 1.0);
+  private static final LoggedTunableNumber maxAmbiguity =
+      new LoggedTunableNumber("Vision/Filter/MaxSingleTagAmbiguity", 0.3);
+  private static final LoggedTunableNumber maxTagDistance =
+      new LoggedTunableNumber("Vision/Filter/MaxTagDistanceMeters", 6.0);
+  private static final LoggedTunableNumber maxAngularVelocity =
+      new LoggedTunableNumber("Vision/Filter/MaxAngularVelocityRadPerSec", Math.toRadians(720.0));
+  private static final LoggedTunableNumber fieldMargin =
+      new LoggedTunableNumber("Vision/Filter/FieldMarginMeters", 0.5);
+  private static final LoggedTunableNumber maxPoseJump =
+      new LoggedTunableNumber("Vision/Filter/MaxPoseJumpMeters", 1.0);
+  // Frames with this many tags may move the estimate any distance, so a bad estimate recovers
+  private static final LoggedTunableNumber poseJumpOverrideTagCount =
+      new LoggedTunableNumber("Vision/Filter/PoseJumpOverrideTagCount", 2.0);
+
+  /** A check in the chain. */
+  @FunctionalInterface
+  public interface Check {
+    /**
+     * Returns whether to keep the frame.
+     *
+     * @param angularVelocity Robot angular velocity, in rad/s.
+     */
+    boolean accept(Frame frame, double angularVelocity);
+  }
+
+  private static class Stage {
+    private final Check check;
+    private final String acceptedKey;
+    private final String rejectedKey;
+    private long accepted = 0;
+    private long rejected = 0;
+
+    private Stage(String name, Check check) {
+      this.check = check;
+      acceptedKey = "Vision/Filter/" + name + "/Accepted";
+      rejectedKey = "Vision/Filter/" + name + "/Rejected";
+    }
+  }
+
+  private final List<Stage> stages = new ArrayList<>();
+  private final double[] lastTimestamps = new double[VisionConstants.cameras.length];
+
+  /** Creates a filter with the standard checks. */
+  public static VisionFilter createDefault() {
+    VisionFilter filter = new VisionFilter();
+    return filter
+        .addCheck("Timestamp", filter::checkTimestamp)
+        .addCheck("TagCount", (frame, omega) -> frame.estimate().tagCount >= minTagCount.get())
+        .addCheck("Ambiguity", (frame, omega) -> checkAmbiguity(frame.estimate()))
+        .addCheck(
+            "TagDistance", (frame, omega) -> frame.estimate().avgTagDist <= maxTagDistance.get())
+        .addCheck("AngularVelocity", (frame, omega) -> Math.abs(omega) <= maxAngularVelocity.get())
+        .addCheck("FieldBounds", (frame, omega) -> checkFieldBounds(frame.estimate().pose))
+        .addCheck("PoseJump", (frame, omega) -> checkPoseJump(frame.estimate()));
+  }
+
+  /** Adds a check to the end of the chain. */
+  public VisionFilter addCheck(String name, Check check) {
+    stages.add(new Stage(name, check));
+    return this;
+  }
+
+  /**
+   * Runs a frame through the chain.
+   *
+   * @param angularVelocity Robot angular velocity, in rad/s.
+   * @return Whether every check accepted the frame.
+   */
+  public boolean accept(Frame frame, double angularVelocity) {
+    for (int i = 0; i < stages.size(); i++) {
+      Stage stage = stages.get(i);
+      if (!stage.check.accept(frame, angularVelocity)) {
+        stage.rejected++;
+        return false;
+      }
+      stage.accepted++;
+    }
+    return true;
+  }
+
+  /** Logs the counters of every check. */
+  public void logCounters() {
+    for (int i = 0; i < stages.size(); i++) {
+      Stage stage = stages.get(i);
+      Logger.recordOutput(stage.acceptedKey, stage.accepted);
+      Logger.recordOutput(stage.rejectedKey, stage.rejected);
+    }
+  }
+
+  /** Rejects frames from the future, frames older than the max latency and repeated frames. */
+  private boolean checkTimestamp(Frame frame, double angularVelocity) {
+    double timestamp = frame.estimate().timestampSeconds;
+    double now = Timer.getFPGATimestamp();
+    if (timestamp > now || now - timestamp > maxLatencySecs.get()) {
+      return false;
+    }
+    if (timestamp <= lastTimestamps[frame.camera()]) {
+      return false;
+    }
+    lastTimestamps[frame.camera()] = timestamp;
+    return true;
+  }
+
+  /** Rejects single tag frames where the tag could be seen from two poses. */
+  private static boolean checkAmbiguity(PoseEstimate estimate) {
+    if (estimate.tagCount != 1) {
+      return true;
+    }
+    for (RawFiducial fiducial : estimate.rawFiducials) {
+      if (fiducial != null && fiducial.ambiguity > maxAmbiguity.get()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean checkFieldBounds(Pose2d pose) {
+    double margin = fieldMargin.get();
+    return pose.getX() >= -margin
+        && pose.getX() <= FieldConstants.fieldLength + margin
+        && pose.getY() >= -margin
+        && pose.getY() <= FieldConstants.fieldWidth + margin;
+  }
+
+  /** Rejects frames far from where odometry says the robot was when the frame was taken. */
+  private static boolean checkPoseJump(PoseEstimate estimate) {
+    if (estimate.tagCount >= poseJumpOverrideTagCount.get()) {
+      return true;
+    }
+    Optional<Pose2d> estimateAtTime =
+        RobotState.getInstance().getEstimatedPoseAt(estimate.timestampSeconds);
+    return estimateAtTime.isEmpty()
+        || estimateAtTime.get().getTranslation().getDistance(estimate.pose.getTranslation())
+            <= maxPoseJump.get();
+  }
+}
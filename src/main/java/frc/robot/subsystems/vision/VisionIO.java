@@ -0,0 +1,47 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import org.littletonrobotics.junction.AutoLog;
+
+/** IO for one Limelight running MegaTag2. Inputs hold every frame received since the last cycle. */
+public interface VisionIO {
+  /** Values per raw fiducial in {@link VisionIOInputs#rawFiducials}. */
+  int valuesPerFiducial = 6;
+
+  @AutoLog
+  class VisionIOInputs {
+    public double[] timestamps = new double[] {};
+    public Pose2d[] poses = new Pose2d[] {};
+    public double[] latencies = new double[] {};
+    public int[] tagCounts = new int[] {};
+    public double[] tagSpans = new double[] {};
+    public double[] averageTagDistances = new double[] {};
+    public double[] averageTagAreas = new double[] {};
+    // Raw fiducials of every frame, in frame order. Each has an entry in tagIds and
+    // valuesPerFiducial entries in rawFiducials: txnc, tync, ta, distToCamera, distToRobot and
+    // ambiguity
+    public int[] fiducialCounts = new int[] {};
+    public int[] tagIds = new int[] {};
+    public double[] rawFiducials = new double[] {};
+    public int droppedFrames = 0;
+    // Camera pose set in the Limelight web interface, from its json results
+    public Pose3d robotToCamera = new Pose3d();
+    public long jsonParseCount = 0;
+    public long jsonCacheHitCount = 0;
+    public double jsonLastParseMs = 0.0;
+    public double jsonMaxParseMs = 0.0;
+  }
+
+  default void updateInputs(VisionIOInputs inputs) {}
+
+  /** Sends the robot heading to the camera, which MegaTag2 needs to solve for the pose. */
+  default void setRobotOrientation(double yawDegrees, double yawRateDegreesPerSec) {}
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.LimelightHelpers;
+import frc.robot.LimelightHelpers.JSONParseStats;
+import frc.robot.LimelightHelpers.LimelightResults;
+import frc.robot.LimelightHelpers.PoseEstimate;
+import frc.robot.LimelightHelpers.RawFiducial;
+import frc.robot.LimelightHelpers.TargetType;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/** IO implementation for a Limelight, reading every frame through {@link VisionIngestion}. */
+public class VisionIOLimelight implements VisionIO {
+  // Only the camera pose is read from the json results, so every target array is skipped
+  private static final Set<TargetType> jsonTargetTypes = EnumSet.noneOf(TargetType.class);
+
+  private final int camera;
+  private final String name;
+  private final List<PoseEstimate> frames = new ArrayList<>();
+  private final Consumer<PoseEstimate> addFrame = frames::add;
+  private LimelightResults lastResults = null;
+
+  /**
+   * Creates a new Limelight IO.
+   *
+   * @param camera Index of the camera in {@link VisionConstants#cameras}.
+   */
+  public VisionIOLimelight(int camera) {
+    this.camera = camera;
+    name = VisionConstants.cameras[camera].name();
+  }
+
+  @Override
+  public void updateInputs(VisionIOInputs inputs) {
+    frames.clear();
+    VisionIngestion.getInstance().drainFrames(camera, addFrame);
+
+    int frameCount = frames.size();
+    int fiducialCount = 0;
+    for (int i = 0; i < frameCount; i++) {
+      for (RawFiducial fiducial : frames.get(i).rawFiducials) {
+        if (fiducial != null) fiducialCount++;
+      }
+    }
+
+    inputs.timestamps = new double[frameCount];
+    inputs.poses = new Pose2d[frameCount];
+    inputs.latencies = new double[frameCount];
+    inputs.tagCounts = new int[frameCount];
+    inputs.tagSpans = new double[frameCount];
+    inputs.averageTagDistances = new double[frameCount];
+    inputs.averageTagAreas = new double[frameCount];
+    inputs.fiducialCounts = new int[frameCount];
+    inputs.tagIds = new int[fiducialCount];
+    inputs.rawFiducials = new double[fiducialCount * valuesPerFiducial];
+    int fiducial = 0;
+    for (int i = 0; i < frameCount; i++) {
+      PoseEstimate frame = frames.get(i);
+      inputs.timestamps[i] = frame.timestampSeconds;
+      inputs.poses[i] = frame.pose;
+      inputs.latencies[i] = frame.latency;
+      inputs.tagCounts[i] = frame.tagCount;
+      inputs.tagSpans[i] = frame.tagSpan;
+      inputs.averageTagDistances[i] = frame.avgTagDist;
+      inputs.averageTagAreas[i] = frame.avgTagArea;
+      for (RawFiducial raw : frame.rawFiducials) {
+        if (raw == null) continue;
+        int base = fiducial * valuesPerFiducial;
+        inputs.tagIds[fiducial] = raw.id;
+        inputs.rawFiducials[base] = raw.txnc;
+        inputs.rawFiducials[base + 1] = raw.tync;
+        inputs.rawFiducials[base + 2] = raw.ta;
+        inputs.rawFiducials[base + 3] = raw.distToCamera;
+        inputs.rawFiducials[base + 4] = raw.distToRobot;
+        inputs.rawFiducials[base + 5] = raw.ambiguity;
+        inputs.fiducialCounts[i]++;
+        fiducial++;
+      }
+    }
+    inputs.droppedFrames = VisionIngestion.getInstance().getDroppedFrames(camera);
+
+    // Parsed again only when the camera publishes a new frame
+    LimelightResults results = LimelightHelpers.getCachedResults(name, jsonTargetTypes);
+    if (results != lastResults) {
+      inputs.robotToCamera = results.targetingResults.getCameraPose3d_RobotSpace();
+      lastResults = results;
+    }
+    JSONParseStats stats = LimelightHelpers.getJSONParseStats(name);
+    inputs.jsonParseCount = stats.parseCount;
+    inputs.jsonCacheHitCount = stats.cacheHitCount;
+    inputs.jsonLastParseMs = stats.lastParseMillis;
+    inputs.jsonMaxParseMs = stats.maxParseMillis;
+  }
+
+  @Override
+  public void setRobotOrientation(double yawDegrees, double yawRateDegreesPerSec) {
+    LimelightHelpers.SetRobotOrientation(name, yawDegrees, yawRateDegreesPerSec, 0, 0, 0, 0);
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.LimelightHelpers;
+import frc.robot.LimelightHelpers.PoseEstimate;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Captures every MegaTag2 frame published by the cameras in {@link VisionConstants#cameras},
+ * instead of only the latest value when the main loop happens to poll.
+ *
+ * <p>A NetworkTables listener parses each frame on the listener thread and adds it to a lock-free
+ * queue for its camera, which the main loop empties with {@link #drainFrames(int, Consumer)}.
+ * Frames are timestamped with the server time they were published at, which on the roboRIO is the
+ * FPGA clock, minus the latency reported by the camera. If a queue is not drained, only the newest
+ * {@link #maxQueuedFrames} frames are kept.
+ */
+public class VisionIngestion {
+  private static final int maxQueuedFrames = 50;
+
+  private final CameraQueue[] queues = new CameraQueue[VisionConstants.cameras.length];
+
+  private static VisionIngestion instance = null;
+
+  public static VisionIngestion getInstance() {
+    if (instance == null) {
+      instance = new VisionIngestion();
+    }
+    return instance;
+  }
+
+  private static class CameraQueue {
+    private final Queue<PoseEstimate> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private DoubleArraySubscriber subscriber;
+
+    private void add(PoseEstimate frame) {
+      frames.add(frame);
+      if (queuedFrames.incrementAndGet() > maxQueuedFrames && frames.poll() != null) {
+        queuedFrames.decrementAndGet();
+        droppedFrames.incrementAndGet();
+      }
+    }
+  }
+
+  private VisionIngestion() {
+    NetworkTableInstance nt = NetworkTableInstance.getDefault();
+    for (int i = 0; i < VisionConstants.cameras.length; i++) {
+      CameraQueue queue = new CameraQueue();
+      queue.subscriber =
+          nt.getTable(VisionConstants.cameras[i].name())
+              .getDoubleArrayTopic("botpose_orb_wpiblue")
+              .subscribe(
+                  new double[0], PubSubOption.sendAll(true), PubSubOption.keepDuplicates(true));
+      nt.addListener(
+          queue.subscriber,
+          EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+          event -> {
+            var value = event.valueData.value;
+            queue.add(
+                LimelightHelpers.toPoseEstimate(value.getDoubleArray(), value.getServerTime()));
+          });
+      queues[i] = queue;
+    }
+  }
+
+  /**
+   * Passes every frame received from a camera since the last call to {@code consumer}, in arrival
+   * order.
+   *
+   * @param camera Index of the camera in {@link VisionConstants#cameras}.
+   */
+  public void drainFrames(int camera, Consumer<PoseEstimate> consumer) {
+    CameraQueue queue = queues[camera];
+    PoseEstimate frame;
+    while ((frame = queue.frames.poll()) != null) {
+      queue.queuedFrames.decrementAndGet();
+      consumer.accept(frame);
+    }
+  }
+
+  /** Returns how many frames from a camera were dropped because its queue was full. */
+  public int getDroppedFrames(int camera) {
+    return queues[camera].droppedFrames.get();
+  }
+}
@@ -0,0 +1,227 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import static frc.robot.Subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.DoubleSubscriber;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.FieldConstants;
+import frc.robot.LimelightHelpers;
+import frc.robot.RobotState;
+import frc.robot.subsystems.vision.Vision.Frame;
+import frc.robot.util.LoggedTunableNumber;
+import frc.robot.util.VirtualSubsystem;
+import java.util.Arrays;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Raises the frame rate of an AprilTag camera by cropping each frame to where the speaker tags are
+ * expected and downscaling at close range, where tags are large enough to be found at lower
+ * resolution.
+ *
+ * <p>Tag corners are projected through the camera model from the predicted pose. The crop falls
+ * back to the full frame while disabled, when no speaker tag should be in view, and when the camera
+ * has not seen a tag for {@link #fullFrameTimeoutSecs}, so a bad estimate cannot crop out the tags
+ * that would correct it. The pipeline must use the default crop in the Limelight web interface.
+ */
+public class VisionThroughput extends VirtualSubsystem {
+  private static final int[] speakerTagIds = {3, 4, 7, 8};
+  private static final double[] fullFrame = {-1.0, 1.0, -1.0, 1.0};
+
+  private static final LoggedTunableNumber lookaheadSecs =
+      new LoggedTunableNumber("Vision/Throughput/LookaheadSecs", 0.05);
+  private static final LoggedTunableNumber cropMargin =
+      new LoggedTunableNumber("Vision/Throughput/CropMargin", 0.15);
+  private static final LoggedTunableNumber fullFrameTimeoutSecs =
+      new LoggedTunableNumber("Vision/Throughput/FullFrameTimeoutSecs", 0.5);
+  private static final LoggedTunableNumber halfDownscaleDistance =
+      new LoggedTunableNumber("Vision/Throughput/HalfDownscaleDistanceMeters", 3.5);
+  private static final LoggedTunableNumber thirdDownscaleDistance =
+      new LoggedTunableNumber("Vision/Throughput/ThirdDownscaleDistanceMeters", 2.0);
+
+  private final int camera;
+  private final String name;
+  private final String keyPrefix;
+  private final double tanHalfHorizontalFov;
+  private final double tanHalfVerticalFov;
+
+  // Field coordinates of each speaker tag's center followed by its four corners
+  private final Translation3d[] tagPoints;
+  private final Translation3d[] tagNormals;
+  private final boolean[] tagPresent;
+
+  private final DoubleSubscriber tlSubscriber;
+  private final DoubleSubscriber clSubscriber;
+  private final DoubleArraySubscriber hwSubscriber;
+
+  private final double[] crop = new double[4];
+  private final double[] sentCrop = {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+  private float sentDownscale = Float.NaN;
+  private double lastTagFrameTime = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Creates a new throughput controller.
+   *
+   * @param camera One of {@link VisionConstants#cameras}.
+   */
+  public VisionThroughput(VisionConstants.Camera camera) {
+    this.camera = Arrays.asList(VisionConstants.cameras).indexOf(camera);
+    if (this.camera < 0) {
+      throw new IllegalArgumentException("Camera " + camera.name() + " is not in the camera list");
+    }
+    name = camera.name();
+    keyPrefix = "Vision/Throughput/" + name + "/";
+    tanHalfHorizontalFov = Math.tan(Math.toRadians(VisionConstants.limelightHorizontalFov) / 2.0);
+    tanHalfVerticalFov = Math.tan(Math.toRadians(VisionConstants.limelightVerticalFov) / 2.0);
+
+    tagPoints = new Translation3d[speakerTagIds.length * 5];
+    tagNormals = new Translation3d[speakerTagIds.length];
+    tagPresent = new boolean[speakerTagIds.length];
+    double halfWidth = FieldConstants.aprilTagWidth / 2.0;
+    for (int i = 0; i < speakerTagIds.length; i++) {
+      var tagPose = FieldConstants.bundledAprilTagLayout.getTagPose(speakerTagIds[i]);
+      if (tagPose.isEmpty()) continue;
+      Pose3d pose = tagPose.get();
+      tagPresent[i] = true;
+      tagNormals[i] = new Translation3d(1.0, 0.0, 0.0).rotateBy(pose.getRotation());
+      tagPoints[i * 5] = pose.getTranslation();
+      for (int corner = 0; corner < 4; corner++) {
+        double dy = (corner & 1) == 0 ? -halfWidth : halfWidth;
+        double dz = (corner & 2) == 0 ? -halfWidth : halfWidth;
+        tagPoints[i * 5 + 1 + corner] =
+            new Translation3d(0.0, dy, dz).rotateBy(pose.getRotation()).plus(pose.getTranslation());
+      }
+    }
+
+    NetworkTable table = LimelightHelpers.getLimelightNTTable(name);
+    tlSubscriber = table.getDoubleTopic("tl").subscribe(0.0);
+    clSubscriber = table.getDoubleTopic("cl").subscribe(0.0);
+    hwSubscriber = table.getDoubleArrayTopic("hw").subscribe(new double[0]);
+  }
+
+  @Override
+  public void periodic() {
+    double now = Timer.getFPGATimestamp();
+    for (Frame frame : vision.getFrames()) {
+      if (frame.camera() == camera && frame.estimate().tagCount > 0) {
+        lastTagFrameTime = now;
+      }
+    }
+
+    double distance = Double.NaN;
+    if (DriverStation.isEnabled() && now - lastTagFrameTime <= fullFrameTimeoutSecs.get()) {
+      distance = predictCrop();
+    }
+    boolean useFullFrame = Double.isNaN(distance);
+    if (useFullFrame) {
+      System.arraycopy(fullFrame, 0, crop, 0, 4);
+    }
+    float downscale = 1.0f;
+    if (!useFullFrame && distance <= thirdDownscaleDistance.get()) {
+      downscale = 3.0f;
+    } else if (!useFullFrame && distance <= halfDownscaleDistance.get()) {
+      downscale = 2.0f;
+    }
+
+    if (crop[0] != sentCrop[0]
+        || crop[1] != sentCrop[1]
+        || crop[2] != sentCrop[2]
+        || crop[3] != sentCrop[3]) {
+      LimelightHelpers.setCropWindow(name, crop[0], crop[1], crop[2], crop[3]);
+      System.arraycopy(crop, 0, sentCrop, 0, 4);
+    }
+    if (downscale != sentDownscale) {
+      LimelightHelpers.SetFiducialDownscalingOverride(name, downscale);
+      sentDownscale = downscale;
+    }
+
+    double[] hw = hwSubscriber.get();
+    Logger.recordOutput(keyPrefix + "CropWindow", crop);
+    Logger.recordOutput(keyPrefix + "FullFrame", useFullFrame);
+    Logger.recordOutput(keyPrefix + "Downscale", (double) downscale);
+    Logger.recordOutput(keyPrefix + "PipelineLatencyMs", tlSubscriber.get());
+    Logger.recordOutput(keyPrefix + "CaptureLatencyMs", clSubscriber.get());
+    Logger.recordOutput(keyPrefix + "FPS", hw.length > 0 ? hw[0] : 0.0);
+  }
+
+  /**
+   * Fills {@link #crop} with the bounds of every speaker tag expected in view, plus the margin.
+   *
+   * @return Average distance from the camera to those tags, or NaN if none are expected in view.
+   */
+  private double predictCrop() {
+    double lookahead = lookaheadSecs.get();
+    Pose3d cameraPose =
+        new Pose3d(RobotState.getInstance().getPredictedPose(lookahead, lookahead))
+            .transformBy(VisionConstants.cameras[camera].robotToCamera().get());
+    Translation3d cameraTranslation = cameraPose.getTranslation();
+    Rotation3d fieldToCamera = cameraPose.getRotation().unaryMinus();
+
+    double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+    double distanceSum = 0.0;
+    int visibleTags = 0;
+    for (int i = 0; i < speakerTagIds.length; i++) {
+      if (!tagPresent[i]) continue;
+      // Only tags facing the camera are detected
+      Translation3d tagToCamera = cameraTranslation.minus(tagPoints[i * 5]);
+      if (tagToCamera.getX() * tagNormals[i].getX()
+              + tagToCamera.getY() * tagNormals[i].getY()
+              + tagToCamera.getZ() * tagNormals[i].getZ()
+          <= 0.0) {
+        continue;
+      }
+
+      double tagMinX = Double.POSITIVE_INFINITY, tagMaxX = Double.NEGATIVE_INFINITY;
+      double tagMinY = Double.POSITIVE_INFINITY, tagMaxY = Double.NEGATIVE_INFINITY;
+      boolean behindCamera = false;
+      for (int corner = 1; corner <= 4; corner++) {
+        Translation3d inCamera =
+            tagPoints[i * 5 + corner].minus(cameraTranslation).rotateBy(fieldToCamera);
+        if (inCamera.getX() <= 0.0) {
+          behindCamera = true;
+          break;
+        }
+        // Normalized image coordinates, positive right and up
+        double imageX = -inCamera.getY() / inCamera.getX() / tanHalfHorizontalFov;
+        double imageY = inCamera.getZ() / inCamera.getX() / tanHalfVerticalFov;
+        tagMinX = Math.min(tagMinX, imageX);
+        tagMaxX = Math.max(tagMaxX, imageX);
+        tagMinY = Math.min(tagMinY, imageY);
+        tagMaxY = Math.max(tagMaxY, imageY);
+      }
+      if (behindCamera || tagMaxX < -1.0 || tagMinX > 1.0 || tagMaxY < -1.0 || tagMinY > 1.0) {
+        continue;
+      }
+      minX = Math.min(minX, tagMinX);
+      maxX = Math.max(maxX, tagMaxX);
+      minY = Math.min(minY, tagMinY);
+      maxY = Math.max(maxY, tagMaxY);
+      distanceSum += tagToCamera.getNorm();
+      visibleTags++;
+    }
+    if (visibleTags == 0) {
+      return Double.NaN;
+    }
+
+    double margin = cropMargin.get();
+    crop[0] = Math.max(-1.0, minX - margin);
+    crop[1] = Math.min(1.0, maxX + margin);
+    crop[2] = Math.max(-1.0, minY - margin);
+    crop[3] = Math.min(1.0, maxY + margin);
+    return distanceSum / visibleTags;
+  }
+}
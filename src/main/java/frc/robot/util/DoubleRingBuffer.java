@@ -0,0 +1,130 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer queue of primitive doubles.
+ *
+ * <p>Exactly one thread may call {@link #offer(double)} and exactly one other thread may call the
+ * read methods ({@link #drain()}, {@link #drainTo(double[])}, {@link #clear()}). Samples are stored
+ * unboxed in a fixed array, so neither side allocates once the buffer has been created.
+ */
+public class DoubleRingBuffer {
+  private static final double[] empty = new double[] {};
+
+  private final double[] buffer;
+  private final int mask;
+
+  // Index of the next sample to read, only written by the consumer
+  private final AtomicLong head = new AtomicLong();
+  // Index of the next sample to write, only written by the producer
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Creates a new buffer.
+   *
+   * @param capacity Minimum number of samples to hold, rounded up to the next power of two.
+   */
+  public DoubleRingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    buffer = new double[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Adds a sample to the buffer. Only call from the producer thread.
+   *
+   * @return False if the buffer was full and the sample was dropped.
+   */
+  public boolean offer(double value) {
+    long currentTail = tail.get();
+    if (currentTail - head.get() >= buffer.length) {
+      return false;
+    }
+    buffer[(int) (currentTail & mask)] = value;
+    // Publish the sample after it is written
+    tail.lazySet(currentTail + 1);
+    return true;
+  }
+
+  /**
+   * Adds a block of samples to the buffer. The consumer sees either all of the samples or none of
+   * them. Only call from the producer thread.
+   *
+   * @return False if there was not room for the whole block and it was dropped.
+   */
+  public boolean offer(double[] values) {
+    long currentTail = tail.get();
+    if (currentTail - head.get() + values.length > buffer.length) {
+      return false;
+    }
+    for (int i = 0; i < values.length; i++) {
+      buffer[(int) ((currentTail + i) & mask)] = values[i];
+    }
+    // Publish the block after every sample is written
+    tail.lazySet(currentTail + values.length);
+    return true;
+  }
+
+  /** Returns the number of samples waiting to be read. */
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /** Returns the maximum number of samples the buffer can hold. */
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Moves waiting samples into {@code destination}, oldest first. Only call from the consumer
+   * thread.
+   *
+   * @return The number of samples copied.
+   */
+  public int drainTo(double[] destination) {
+    return drainTo(destination, 0);
+  }
+
+  /**
+   * Moves waiting samples into {@code destination} starting at {@code offset}, oldest first. Only
+   * call from the consumer thread.
+   *
+   * @return The number of samples copied.
+   */
+  public int drainTo(double[] destination, int offset) {
+    long currentHead = head.get();
+    int count = (int) Math.min(tail.get() - currentHead, destination.length - offset);
+    for (int i = 0; i < count; i++) {
+      destination[offset + i] = buffer[(int) ((currentHead + i) & mask)];
+    }
+    head.lazySet(currentHead + count);
+    return count;
+  }
+
+  /**
+   * Returns all waiting samples as a new array, oldest first. Returns a shared empty array when no
+   * samples are waiting. Only call from the consumer thread.
+   */
+  public double[] drain() {
+    int count = size();
+    if (count == 0) {
+      return empty;
+    }
+    double[] samples = new double[count];
+    drainTo(samples);
+    return samples;
+  }
+
+  /** Discards all waiting samples. Only call from the consumer thread. */
+  public void clear() {
+    head.lazySet(tail.get());
+  }
+}
@@ -8,7 +8,6 @@
 package frc.robot.util;
 
 import frc.robot.Constants;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -106,14 +105,30 @@ public class LoggedTunableNumber implements DoubleSupplier {
    */
   public static void ifChanged(
       int id, Consumer<double[]> action, LoggedTunableNumber... tunableNumbers) {
-    if (Arrays.stream(tunableNumbers).anyMatch(tunableNumber -> tunableNumber.hasChanged(id))) {
-      action.accept(Arrays.stream(tunableNumbers).mapToDouble(LoggedTunableNumber::get).toArray());
+    if (anyChanged(id, tunableNumbers)) {
+      double[] values = new double[tunableNumbers.length];
+      for (int i = 0; i < tunableNumbers.length; i++) {
+        values[i] = tunableNumbers[i].get();
+      }
+      action.accept(values);
     }
   }
 
   /** Runs action if any of the tunableNumbers have changed */
   public static void ifChanged(int id, Runnable action, LoggedTunableNumber... tunableNumbers) {
-    ifChanged(id, values -> action.run(), tunableNumbers);
+    if (anyChanged(id, tunableNumbers)) {
+      action.run();
+    }
+  }
+
+  /** Checks the numbers in order until one has changed. Called every cycle, so no streams. */
+  private static boolean anyChanged(int id, LoggedTunableNumber[] tunableNumbers) {
+    for (LoggedTunableNumber tunableNumber : tunableNumbers) {
+      if (tunableNumber.hasChanged(id)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -0,0 +1,67 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+
+/**
+ * Transform made of tunable numbers, with the translation in meters and the rotation in degrees.
+ * The transform is only rebuilt when one of the numbers changes.
+ */
+public class LoggedTunableTransform3d {
+  private final LoggedTunableNumber[] numbers;
+  private final double[] values = new double[6];
+  private Transform3d transform;
+
+  /**
+   * Create a new LoggedTunableTransform3d
+   *
+   * @param dashboardKey Key on dashboard, under which each number gets its own key
+   * @param defaultValue Default value
+   */
+  public LoggedTunableTransform3d(String dashboardKey, Transform3d defaultValue) {
+    numbers =
+        new LoggedTunableNumber[] {
+          new LoggedTunableNumber(dashboardKey + "/X", defaultValue.getX()),
+          new LoggedTunableNumber(dashboardKey + "/Y", defaultValue.getY()),
+          new LoggedTunableNumber(dashboardKey + "/Z", defaultValue.getZ()),
+          new LoggedTunableNumber(
+              dashboardKey + "/RollDegrees", Math.toDegrees(defaultValue.getRotation().getX())),
+          new LoggedTunableNumber(
+              dashboardKey + "/PitchDegrees", Math.toDegrees(defaultValue.getRotation().getY())),
+          new LoggedTunableNumber(
+              dashboardKey + "/YawDegrees", Math.toDegrees(defaultValue.getRotation().getZ()))
+        };
+    for (int i = 0; i < numbers.length; i++) {
+      values[i] = numbers[i].get();
+    }
+    transform = defaultValue;
+  }
+
+  /** Returns the current transform, from dashboard if available and in tuning mode. */
+  public Transform3d get() {
+    boolean changed = false;
+    for (int i = 0; i < numbers.length; i++) {
+      double value = numbers[i].get();
+      if (value != values[i]) {
+        values[i] = value;
+        changed = true;
+      }
+    }
+    if (changed) {
+      transform =
+          new Transform3d(
+              new Translation3d(values[0], values[1], values[2]),
+              new Rotation3d(
+                  Math.toRadians(values[3]), Math.toRadians(values[4]), Math.toRadians(values[5])));
+    }
+    return transform;
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import frc.robot.Constants;
+import frc.robot.util.Alert.AlertType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Measures how long each part of the main loop takes and logs rolling statistics under
+ * "LoopProfiler", refreshed every {@link #logPeriodCycles} cycles.
+ *
+ * <p>Phases nest: {@link #push(String)} starts a phase inside the current one and {@link #pop()}
+ * ends it, so a subsystem pushed while the command scheduler phase is running is logged as
+ * "LoopProfiler/CommandScheduler/{subsystem}". Command execute times are measured between scheduler
+ * callbacks, so they also include the previous command's isFinished and, for the first command,
+ * polling the button bindings.
+ *
+ * <p>Pop every push in a {@code finally} block, so an early return or exception cannot leave a
+ * phase open. Phases nested deeper than {@link #maxDepth} are not timed, and a cycle that ends with
+ * phases still open discards them; both raise an alert instead of failing the loop.
+ *
+ * <p>Phases are created the first time they run, after which profiling does not allocate. When
+ * {@link Constants#loopProfiling} is false every method returns immediately. Only call from the
+ * main thread.
+ */
+public final class LoopProfiler {
+  private static final int windowSize = 250; // 5 seconds of loops
+  private static final int logPeriodCycles = 10; // Percentiles sort the window, so log less often
+  private static final double alertBudgetFraction = 0.5;
+  private static final int maxDepth = 16;
+
+  private static final Phase root = new Phase("LoopProfiler");
+  private static final List<Phase> phases = new ArrayList<>(List.of(root));
+  private static final Phase[] stack = new Phase[maxDepth];
+  private static int depth = 0;
+  private static int overflowDepth = 0; // Pushes past maxDepth, matched by pops that do nothing
+  private static final Alert overflowAlert =
+      new Alert("Loop profiler phases nested too deeply, some are not timed.", AlertType.ERROR);
+  private static final Alert unbalancedAlert =
+      new Alert("Loop profiler phases were left open at the end of a cycle.", AlertType.ERROR);
+  private static long lastEventNanos = 0;
+  private static int cycleCount = 0;
+
+  private LoopProfiler() {}
+
+  private static class Phase {
+    private final String key;
+    private final String p50Key;
+    private final String p99Key;
+    private final String maxKey;
+    private final RollingStatistics statistics = new RollingStatistics(windowSize);
+    private final Map<String, Phase> children = new HashMap<>();
+    private Alert alert = null;
+    private long startNanos = 0;
+    private long cycleNanos = 0;
+    private boolean ran = false;
+    private boolean ranSinceLog = false;
+
+    private Phase(String key) {
+      this.key = key;
+      p50Key = key + "/P50Ms";
+      p99Key = key + "/P99Ms";
+      maxKey = key + "/MaxMs";
+    }
+
+    private Phase getChild(String name) {
+      Phase child = children.get(name);
+      if (child == null) {
+        child = new Phase(key + "/" + name);
+        children.put(name, child);
+        phases.add(child);
+      }
+      return child;
+    }
+  }
+
+  /** Starts a new loop cycle. Call at the start of robotPeriodic. */
+  public static void startCycle() {
+    if (!Constants.loopProfiling) return;
+    depth = 0;
+    overflowDepth = 0;
+    push(root);
+  }
+
+  /** Starts timing {@code name} inside the current phase. */
+  public static void push(String name) {
+    if (!Constants.loopProfiling || depth == 0) return;
+    push(stack[depth - 1].getChild(name));
+  }
+
+  private static void push(Phase phase) {
+    if (depth == maxDepth) {
+      overflowDepth++;
+      overflowAlert.set(true);
+      return;
+    }
+    lastEventNanos = System.nanoTime();
+    phase.startNanos = lastEventNanos;
+    stack[depth++] = phase;
+  }
+
+  /** Stops timing the phase started by the last {@link #push(String)}. */
+  public static void pop() {
+    if (!Constants.loopProfiling || depth <= 1) return;
+    if (overflowDepth > 0) {
+      overflowDepth--;
+      return;
+    }
+    Phase phase = stack[--depth];
+    lastEventNanos = System.nanoTime();
+    phase.cycleNanos += lastEventNanos - phase.startNanos;
+    phase.ran = true;
+  }
+
+  /**
+   * Records that {@code command} finished executing. Register with {@link
+   * edu.wpi.first.wpilibj2.command.CommandScheduler#onCommandExecute}.
+   */
+  public static void recordCommandExecute(Command command) {
+    if (!Constants.loopProfiling || depth == 0) return;
+    Phase phase = stack[depth - 1].getChild("Commands").getChild(command.getName());
+    long now = System.nanoTime();
+    phase.cycleNanos += now - lastEventNanos;
+    phase.ran = true;
+    lastEventNanos = now;
+  }
+
+  /** Ends the loop cycle and logs every phase. Call at the end of robotPeriodic. */
+  public static void endCycle() {
+    if (!Constants.loopProfiling || depth == 0) return;
+    root.cycleNanos += System.nanoTime() - root.startNanos;
+    root.ran = true;
+    if (depth > 1 || overflowDepth > 0) {
+      unbalancedAlert.set(true);
+    }
+    depth = 0;
+    overflowDepth = 0;
+
+    for (int i = 0; i < phases.size(); i++) {
+      Phase phase = phases.get(i);
+      if (!phase.ran) continue;
+      phase.statistics.add(phase.cycleNanos / 1.0e6);
+      phase.cycleNanos = 0;
+      phase.ran = false;
+      phase.ranSinceLog = true;
+    }
+    if (++cycleCount % logPeriodCycles != 0) return;
+
+    double alertThresholdMs = Constants.loopPeriodSecs * 1000.0 * alertBudgetFraction;
+    for (int i = 0; i < phases.size(); i++) {
+      Phase phase = phases.get(i);
+      if (!phase.ranSinceLog) {
+        if (phase.alert != null) phase.alert.set(false);
+        continue;
+      }
+      phase.ranSinceLog = false;
+
+      double p50 = phase.statistics.getPercentile(0.5);
+      Logger.recordOutput(phase.p50Key, p50);
+      Logger.recordOutput(phase.p99Key, phase.statistics.getPercentile(0.99));
+      Logger.recordOutput(phase.maxKey, phase.statistics.getMax());
+
+      // Alert once a full window shows the phase regularly using most of the loop
+      boolean overBudget =
+          phase != root && phase.statistics.getCount() == windowSize && p50 > alertThresholdMs;
+      if (overBudget && phase.alert == null) {
+        phase.alert =
+            new Alert(
+                phase.key + " is regularly using most of the loop period.", AlertType.WARNING);
+      }
+      if (phase.alert != null) {
+        phase.alert.set(overBudget);
+      }
+    }
+  }
+}
@@ -7,168 +7,363 @@
 
 package frc.robot.util;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.Nat;
-import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.wpilibj.Timer;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
+/**
+ * Fuses drive movements and latency compensated vision poses into a single pose estimate.
+ *
+ * <p>Updates are kept in a time ordered ring buffer of primitive arrays, together with the pose
+ * after each update. New drive data is applied to the latest pose directly, and a late vision
+ * measurement only replays the updates from its insertion point onward. Vision gains are diagonal
+ * and computed once when the measurement is added. When the buffer is full, the oldest update is
+ * folded into the base pose and measurements older than the oldest retained update are ignored.
+ * Not thread safe.
+ */
 public class PoseEstimator {
-  private static final double historyLengthSecs = 0.3;
+  static final double historyLengthSecs = 0.3;
+  static final int capacity = 256; // Power of two, over 0.3 s of 250 Hz odometry
+  private static final int maxVisionPerUpdate = 4;
 
-  private Pose2d basePose = new Pose2d();
+  private final double[] q = new double[3];
 
-  /** -- GETTER -- Returns the latest robot pose based on drive and vision data. */
-  private Pose2d latestPose = new Pose2d();
+  // Pose before the oldest update
+  private double baseX = 0.0;
+  private double baseY = 0.0;
+  private double baseTheta = 0.0;
 
-  private final NavigableMap<Double, PoseUpdate> updates = new TreeMap<>();
-  private final Matrix<N3, N1> q = new Matrix<>(Nat.N3(), Nat.N1());
+  // Updates in time order, starting at head
+  private int head = 0;
+  private int size = 0;
+  private final double[] timestamps = new double[capacity];
+  private final double[] twistDx = new double[capacity];
+  private final double[] twistDy = new double[capacity];
+  private final double[] twistDtheta = new double[capacity];
+  private final double[] poseX = new double[capacity]; // Pose after each update
+  private final double[] poseY = new double[capacity];
+  private final double[] poseTheta = new double[capacity];
 
-  private Twist2d multiply(Twist2d twist, double scalar) {
-    return new Twist2d(twist.dx * scalar, twist.dy * scalar, scalar);
-  }
+  // Vision measurements of each update, applied in order (least trusted first)
+  private final int[] visionCounts = new int[capacity];
+  private final double[] visionX = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionY = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionTheta = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionKx = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionKy = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionKtheta = new double[capacity * maxVisionPerUpdate];
+  private final double[] visionStdDevSums = new double[capacity * maxVisionPerUpdate];
+
+  // Scratch for pose math
+  private double resultX, resultY, resultTheta;
+
+  private Pose2d latestPose = new Pose2d();
+  private boolean latestPoseValid = true;
 
   public PoseEstimator(Matrix<N3, N1> stateStdDevs) {
     for (int i = 0; i < 3; ++i) {
-      q.set(i, 0, stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0));
+      q[i] = stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0);
     }
   }
 
+  /** Returns the latest robot pose based on drive and vision data. */
+  public Pose2d getLatestPose() {
+    if (!latestPoseValid) {
+      int last = index(size - 1);
+      latestPose = new Pose2d(poseX[last], poseY[last], new Rotation2d(poseTheta[last]));
+      latestPoseValid = true;
+    }
+    return latestPose;
+  }
+
   /** Resets the odometry to a known pose. */
   public void resetPose(Pose2d pose) {
-    basePose = pose;
-    updates.clear();
-    update();
+    baseX = pose.getX();
+    baseY = pose.getY();
+    baseTheta = pose.getRotation().getRadians();
+    head = 0;
+    size = 0;
+    latestPose = pose;
+    latestPoseValid = true;
   }
 
   /** Records a new drive movement. */
   public void addDriveData(double timestamp, Twist2d twist) {
-    updates.put(timestamp, new PoseUpdate(twist, new ArrayList<>()));
-    update();
+    expire();
+    if (size == capacity) {
+      dropOldest();
+    }
+    // Odometry normally arrives in order, so only the new update needs to be applied
+    int position = size;
+    if (size > 0 && timestamp < timestamps[index(size - 1)]) {
+      position = upperBound(timestamp);
+    }
+    insert(position, timestamp);
+    int i = index(position);
+    twistDx[i] = twist.dx;
+    twistDy[i] = twist.dy;
+    twistDtheta[i] = twist.dtheta;
+    replay(position);
   }
 
   /** Records a new set of vision updates. */
   public void addVisionData(List<TimestampedVisionUpdate> visionData) {
-    for (var timestampedVisionUpdate : visionData) {
-      var timestamp = timestampedVisionUpdate.timestamp();
-      var visionUpdate =
-          new VisionUpdate(timestampedVisionUpdate.pose(), timestampedVisionUpdate.stdDevs());
-
-      if (updates.containsKey(timestamp)) {
+    expire();
+    int firstChanged = size;
+    for (int v = 0; v < visionData.size(); v++) {
+      var visionUpdate = visionData.get(v);
+      double timestamp = visionUpdate.timestamp();
+      int position = lowerBound(timestamp);
+      if (position < size && timestamps[index(position)] == timestamp) {
         // There was already an update at this timestamp, add to it
-        var oldVisionUpdates = updates.get(timestamp).visionUpdates();
-        oldVisionUpdates.add(visionUpdate);
-        oldVisionUpdates.sort(VisionUpdate.compareDescStdDev);
-
+        addVision(index(position), visionUpdate);
       } else {
-        // Insert a new update
-        var prevUpdate = updates.floorEntry(timestamp);
-        var nextUpdate = updates.ceilingEntry(timestamp);
-        if (prevUpdate == null || nextUpdate == null) {
+        if (position == 0 || position == size) {
           // Outside the range of existing data
-          return;
+          continue;
+        }
+        if (size == capacity) {
+          // The oldest update becomes the base pose, so bring its pose up to date first
+          replay(firstChanged);
+          dropOldest();
+          firstChanged = size;
+          position--;
+          if (position == 0) {
+            // Now older than the oldest retained update
+            continue;
+          }
         }
 
-        // Create partial twists (prev -> vision, vision -> next)
-        var twist0 =
-            multiply(
-                nextUpdate.getValue().twist(),
-                (timestamp - prevUpdate.getKey()) / (nextUpdate.getKey() - prevUpdate.getKey()));
-        var twist1 =
-            multiply(
-                nextUpdate.getValue().twist(),
-                (nextUpdate.getKey() - timestamp) / (nextUpdate.getKey() - prevUpdate.getKey()));
-
-        // Add new pose updates
-        var newVisionUpdates = new ArrayList<VisionUpdate>();
-        newVisionUpdates.add(visionUpdate);
-        newVisionUpdates.sort(VisionUpdate.compareDescStdDev);
-        updates.put(timestamp, new PoseUpdate(twist0, newVisionUpdates));
-        updates.put(
-            nextUpdate.getKey(), new PoseUpdate(twist1, nextUpdate.getValue().visionUpdates()));
+        // Split the next twist (prev -> vision, vision -> next)
+        insert(position, timestamp);
+        int i = index(position);
+        int next = index(position + 1);
+        double prevTimestamp = timestamps[index(position - 1)];
+        double fraction = (timestamp - prevTimestamp) / (timestamps[next] - prevTimestamp);
+        twistDx[i] = twistDx[next] * fraction;
+        twistDy[i] = twistDy[next] * fraction;
+        twistDtheta[i] = twistDtheta[next] * fraction;
+        twistDx[next] -= twistDx[i];
+        twistDy[next] -= twistDy[i];
+        twistDtheta[next] -= twistDtheta[i];
+        addVision(i, visionUpdate);
+        if (firstChanged > position) {
+          // Inserting shifted the first changed update back by one
+          firstChanged++;
+        }
       }
+      firstChanged = Math.min(firstChanged, position);
     }
 
-    // Recalculate latest pose once
-    update();
+    // Recalculate latest pose once, from the oldest changed update
+    replay(firstChanged);
   }
 
-  /** Clears old data and calculates the latest pose. */
-  private void update() {
-    // Clear old data and update base pose
-    while (updates.size() > 1
-        && updates.firstKey() < Timer.getFPGATimestamp() - historyLengthSecs) {
-      var update = updates.pollFirstEntry();
-      basePose = update.getValue().apply(basePose, q);
+  /** Adds a vision measurement to the update at {@code i}, keeping least trusted first. */
+  private void addVision(int i, TimestampedVisionUpdate visionUpdate) {
+    int count = visionCounts[i];
+    if (count == maxVisionPerUpdate) {
+      return;
+    }
+    double stdDevSum = visionUpdate.stdDevs().get(0, 0) + visionUpdate.stdDevs().get(1, 0);
+    int slot = i * maxVisionPerUpdate + count;
+    int first = i * maxVisionPerUpdate;
+    while (slot > first && visionStdDevSums[slot - 1] < stdDevSum) {
+      copyVision(slot - 1, slot);
+      slot--;
     }
+    visionX[slot] = visionUpdate.pose().getX();
+    visionY[slot] = visionUpdate.pose().getY();
+    visionTheta[slot] = visionUpdate.pose().getRotation().getRadians();
+    visionStdDevSums[slot] = stdDevSum;
+    // Calculate Kalman gains based on std devs
+    // (https://github.com/wpilibsuite/allwpilib/blob/main/wpimath/src/main/java/edu/wpi/first/math/estimator/)
+    visionKx[slot] = gain(q[0], visionUpdate.stdDevs().get(0, 0));
+    visionKy[slot] = gain(q[1], visionUpdate.stdDevs().get(1, 0));
+    visionKtheta[slot] = gain(q[2], visionUpdate.stdDevs().get(2, 0));
+    visionCounts[i] = count + 1;
+  }
+
+  private static double gain(double q, double stdDev) {
+    return q == 0.0 ? 0.0 : q / (q + Math.sqrt(q * stdDev * stdDev));
+  }
 
-    // Update latest pose
-    latestPose = basePose;
-    for (var updateEntry : updates.entrySet()) {
-      latestPose = updateEntry.getValue().apply(latestPose, q);
+  /** Reapplies every update from logical position {@code from} onward. */
+  private void replay(int from) {
+    double x = from == 0 ? baseX : poseX[index(from - 1)];
+    double y = from == 0 ? baseY : poseY[index(from - 1)];
+    double theta = from == 0 ? baseTheta : poseTheta[index(from - 1)];
+    for (int position = from; position < size; position++) {
+      int i = index(position);
+      // Apply drive twist
+      exp(x, y, theta, twistDx[i], twistDy[i], twistDtheta[i]);
+      x = resultX;
+      y = resultY;
+      theta = resultTheta;
+
+      // Apply vision updates
+      for (int slot = i * maxVisionPerUpdate;
+          slot < i * maxVisionPerUpdate + visionCounts[i];
+          slot++) {
+        // Calculate twist between current and vision pose, then multiply by Kalman gains
+        log(x, y, theta, visionX[slot], visionY[slot], visionTheta[slot]);
+        exp(
+            x,
+            y,
+            theta,
+            resultX * visionKx[slot],
+            resultY * visionKy[slot],
+            resultTheta * visionKtheta[slot]);
+        x = resultX;
+        y = resultY;
+        theta = resultTheta;
+      }
+      poseX[i] = x;
+      poseY[i] = y;
+      poseTheta[i] = theta;
+    }
+    if (size == 0) {
+      latestPose = new Pose2d(baseX, baseY, new Rotation2d(baseTheta));
+      latestPoseValid = true;
+    } else {
+      latestPoseValid = false;
     }
   }
 
+  /** Clears old data, folding it into the base pose. */
+  private void expire() {
+    double cutoff = Timer.getFPGATimestamp() - historyLengthSecs;
+    while (size > 1 && timestamps[head] < cutoff) {
+      dropOldest();
+    }
+  }
+
+  private void dropOldest() {
+    baseX = poseX[head];
+    baseY = poseY[head];
+    baseTheta = poseTheta[head];
+    head = (head + 1) & (capacity - 1);
+    size--;
+  }
+
   /**
-   * Represents a sequential update to a pose estimate, with a twist (drive movement) and list of
-   * vision updates.
+   * Opens an empty update at logical {@code position}, moving later updates back by one. The
+   * buffer must not be full.
    */
-  private record PoseUpdate(Twist2d twist, ArrayList<VisionUpdate> visionUpdates) {
-    public Pose2d apply(Pose2d lastPose, Matrix<N3, N1> q) {
-      // Apply drive twist
-      var pose = lastPose.exp(twist);
+  private void insert(int position, double timestamp) {
+    for (int p = size; p > position; p--) {
+      copyUpdate(index(p - 1), index(p));
+    }
+    size++;
+    int i = index(position);
+    timestamps[i] = timestamp;
+    visionCounts[i] = 0;
+  }
 
-      // Apply vision updates
-      for (var visionUpdate : visionUpdates) {
-        // Calculate Kalman gains based on std devs
-        // (https://github.com/wpilibsuite/allwpilib/blob/main/wpimath/src/main/java/edu/wpi/first/math/estimator/)
-        Matrix<N3, N3> visionK = new Matrix<>(Nat.N3(), Nat.N3());
-        var r = new double[3];
-        for (int i = 0; i < 3; ++i) {
-          r[i] = visionUpdate.stdDevs().get(i, 0) * visionUpdate.stdDevs().get(i, 0);
-        }
-        for (int row = 0; row < 3; ++row) {
-          if (q.get(row, 0) == 0.0) {
-            visionK.set(row, row, 0.0);
-          } else {
-            visionK.set(
-                row, row, q.get(row, 0) / (q.get(row, 0) + Math.sqrt(q.get(row, 0) * r[row])));
-          }
-        }
+  private void copyUpdate(int from, int to) {
+    timestamps[to] = timestamps[from];
+    twistDx[to] = twistDx[from];
+    twistDy[to] = twistDy[from];
+    twistDtheta[to] = twistDtheta[from];
+    poseX[to] = poseX[from];
+    poseY[to] = poseY[from];
+    poseTheta[to] = poseTheta[from];
+    visionCounts[to] = visionCounts[from];
+    for (int v = 0; v < visionCounts[from]; v++) {
+      copyVision(from * maxVisionPerUpdate + v, to * maxVisionPerUpdate + v);
+    }
+  }
+
+  private void copyVision(int from, int to) {
+    visionX[to] = visionX[from];
+    visionY[to] = visionY[from];
+    visionTheta[to] = visionTheta[from];
+    visionKx[to] = visionKx[from];
+    visionKy[to] = visionKy[from];
+    visionKtheta[to] = visionKtheta[from];
+    visionStdDevSums[to] = visionStdDevSums[from];
+  }
 
-        // Calculate twist between current and vision pose
-        var visionTwist = pose.log(visionUpdate.pose());
+  private int index(int position) {
+    return (head + position) & (capacity - 1);
+  }
 
-        // Multiply by Kalman gain matrix
-        var twistMatrix =
-            visionK.times(VecBuilder.fill(visionTwist.dx, visionTwist.dy, visionTwist.dtheta));
+  /** Returns the first logical position with a timestamp at or after {@code timestamp}. */
+  private int lowerBound(double timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[index(mid)] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
 
-        // Apply twist
-        pose =
-            pose.exp(
-                new Twist2d(twistMatrix.get(0, 0), twistMatrix.get(1, 0), twistMatrix.get(2, 0)));
+  /** Returns the first logical position with a timestamp after {@code timestamp}. */
+  private int upperBound(double timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[index(mid)] <= timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
       }
+    }
+    return low;
+  }
 
-      return pose;
+  /** Same as {@link Pose2d#exp(Twist2d)}, writing into the result fields. */
+  private void exp(double x, double y, double theta, double dx, double dy, double dtheta) {
+    double sinTheta = Math.sin(dtheta);
+    double cosTheta = Math.cos(dtheta);
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1e-9) {
+      s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+      c = 0.5 * dtheta;
+    } else {
+      s = sinTheta / dtheta;
+      c = (1 - cosTheta) / dtheta;
     }
+    double localX = dx * s - dy * c;
+    double localY = dx * c + dy * s;
+    double cos = Math.cos(theta);
+    double sin = Math.sin(theta);
+    resultX = x + localX * cos - localY * sin;
+    resultY = y + localX * sin + localY * cos;
+    resultTheta = MathUtil.angleModulus(theta + dtheta);
   }
 
-  /** Represents a single vision pose with associated standard deviations. */
-  public record VisionUpdate(Pose2d pose, Matrix<N3, N1> stdDevs) {
-    public static final Comparator<VisionUpdate> compareDescStdDev =
-        (VisionUpdate a, VisionUpdate b) -> {
-          return -Double.compare(
-              a.stdDevs().get(0, 0) + a.stdDevs().get(1, 0),
-              b.stdDevs().get(0, 0) + b.stdDevs().get(1, 0));
-        };
+  /** Same as {@link Pose2d#log(Pose2d)} from the first pose to the second, into the results. */
+  private void log(double x, double y, double theta, double endX, double endY, double endTheta) {
+    double cos = Math.cos(theta);
+    double sin = Math.sin(theta);
+    double transformX = (endX - x) * cos + (endY - y) * sin;
+    double transformY = -(endX - x) * sin + (endY - y) * cos;
+    double dtheta = MathUtil.angleModulus(endTheta - theta);
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1;
+    double halfThetaByTanOfHalfDtheta;
+    if (Math.abs(cosMinusOne) < 1e-9) {
+      halfThetaByTanOfHalfDtheta = 1.0 - 1.0 / 12.0 * dtheta * dtheta;
+    } else {
+      halfThetaByTanOfHalfDtheta = -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    }
+    resultX = transformX * halfThetaByTanOfHalfDtheta + transformY * halfDtheta;
+    resultY = -transformX * halfDtheta + transformY * halfThetaByTanOfHalfDtheta;
+    resultTheta = dtheta;
   }
 
   /** Represents a single vision pose with a timestamp and associated standard deviations. */
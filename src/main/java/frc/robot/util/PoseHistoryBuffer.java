@@ -0,0 +1,151 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.util.Optional;
+
+/**
+ * Fixed capacity history of timestamped poses that interpolates between samples, replacing {@link
+ * edu.wpi.first.math.interpolation.TimeInterpolatableBuffer} for high rate odometry.
+ *
+ * <p>Poses are stored as x, y and theta in parallel arrays, so adding a sample never allocates.
+ * Once full, the oldest sample is overwritten. Samples must be added in time order; a sample older
+ * than the newest one is dropped and counted, so one late sample cannot wipe the history. Call
+ * {@link #clear()} when time restarts. Not thread safe.
+ */
+public class PoseHistoryBuffer {
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+  private int head = 0; // Index of the oldest sample
+  private int size = 0;
+  private long staleSampleCount = 0;
+
+  /**
+   * Creates a new buffer.
+   *
+   * @param capacity Maximum number of samples to keep.
+   */
+  public PoseHistoryBuffer(int capacity) {
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+  }
+
+  /**
+   * Adds a pose sampled at {@code timestamp}.
+   *
+   * @return False if the sample was older than the newest sample and was dropped.
+   */
+  public boolean addSample(double timestamp, Pose2d pose) {
+    return addSample(timestamp, pose.getX(), pose.getY(), pose.getRotation().getRadians());
+  }
+
+  /**
+   * Adds a pose sampled at {@code timestamp}.
+   *
+   * @return False if the sample was older than the newest sample and was dropped.
+   */
+  public boolean addSample(double timestamp, double x, double y, double theta) {
+    int i;
+    if (size > 0 && timestamp < getLatestTimestamp()) {
+      staleSampleCount++;
+      return false;
+    }
+    if (size > 0 && timestamp == getLatestTimestamp()) {
+      i = index(size - 1);
+    } else {
+      if (size == timestamps.length) {
+        head = (head + 1) % timestamps.length;
+        size--;
+      }
+      i = index(size);
+      size++;
+    }
+    timestamps[i] = timestamp;
+    xs[i] = x;
+    ys[i] = y;
+    thetas[i] = theta;
+    return true;
+  }
+
+  /** Returns the number of samples dropped for being older than the newest sample. */
+  public long getStaleSampleCount() {
+    return staleSampleCount;
+  }
+
+  /** Returns the number of samples in the buffer. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the timestamp of the newest sample. The buffer must not be empty. */
+  public double getLatestTimestamp() {
+    return timestamps[index(size - 1)];
+  }
+
+  /** Returns the timestamp of the oldest sample. The buffer must not be empty. */
+  public double getOldestTimestamp() {
+    return timestamps[head];
+  }
+
+  /**
+   * Returns the pose at {@code timestamp}, interpolated between the samples around it. Timestamps
+   * outside the buffer return the oldest or newest sample. Empty if the buffer is empty.
+   */
+  public Optional<Pose2d> getPoseAt(double timestamp) {
+    if (size == 0) {
+      return Optional.empty();
+    }
+    // Find the first sample at or after the timestamp
+    int low = 0;
+    int high = size - 1;
+    if (timestamp >= timestamps[index(high)]) {
+      return Optional.of(getPose(index(high)));
+    }
+    if (timestamp <= timestamps[head]) {
+      return Optional.of(getPose(head));
+    }
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[index(mid)] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int before = index(low - 1);
+    int after = index(low);
+    double t = (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before]);
+    double theta = thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * t;
+    return Optional.of(
+        new Pose2d(
+            MathUtil.interpolate(xs[before], xs[after], t),
+            MathUtil.interpolate(ys[before], ys[after], t),
+            new Rotation2d(theta)));
+  }
+
+  /** Removes every sample. */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  private Pose2d getPose(int i) {
+    return new Pose2d(xs[i], ys[i], new Rotation2d(thetas[i]));
+  }
+
+  private int index(int position) {
+    return (head + position) % timestamps.length;
+  }
+}
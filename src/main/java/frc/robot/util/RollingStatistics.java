@@ -0,0 +1,76 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a measurement and reports percentiles over them. All storage is
+ * allocated up front so adding samples and querying percentiles never allocates. Not thread safe.
+ */
+public class RollingStatistics {
+  private final double[] window;
+  private final double[] sorted;
+  private int count = 0;
+  private int next = 0;
+  private boolean sortedValid = false;
+
+  /**
+   * Creates a new set of statistics.
+   *
+   * @param windowSize Number of most recent samples to keep.
+   */
+  public RollingStatistics(int windowSize) {
+    window = new double[windowSize];
+    sorted = new double[windowSize];
+  }
+
+  /** Adds a sample, replacing the oldest one once the window is full. */
+  public void add(double value) {
+    window[next] = value;
+    next = (next + 1) % window.length;
+    count = Math.min(count + 1, window.length);
+    sortedValid = false;
+  }
+
+  /** Returns the number of samples currently in the window. */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the value below which {@code percentile} of the samples in the window fall, using the
+   * nearest-rank method. Returns 0 when the window is empty.
+   *
+   * @param percentile Percentile from 0 to 1.
+   */
+  public double getPercentile(double percentile) {
+    if (count == 0) {
+      return 0.0;
+    }
+    if (!sortedValid) {
+      System.arraycopy(window, 0, sorted, 0, count);
+      Arrays.sort(sorted, 0, count);
+      sortedValid = true;
+    }
+    int rank = (int) Math.ceil(percentile * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, rank))];
+  }
+
+  /** Returns the largest sample in the window, or 0 when the window is empty. */
+  public double getMax() {
+    return getPercentile(1.0);
+  }
+
+  /** Removes every sample. */
+  public void clear() {
+    count = 0;
+    next = 0;
+    sortedValid = false;
+  }
+}
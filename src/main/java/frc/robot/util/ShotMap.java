@@ -0,0 +1,208 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+/**
+ * Lookup table from distance to hood angle and flywheel speed, interpolated between measured shots.
+ *
+ * <p>Every column is stored in its own primitive array and results are written into a {@link Shot}
+ * owned by the caller, so a lookup never allocates. Distances below the table use the first row and
+ * distances past the table use the last row, up to a maximum distance.
+ */
+public class ShotMap {
+  /** How to interpolate between rows. */
+  public enum Interpolation {
+    LINEAR,
+    /** Cubic that never overshoots between rows, so a flat section of the table stays flat. */
+    MONOTONE_CUBIC
+  }
+
+  /** How to find the rows around a distance. */
+  public enum Lookup {
+    BINARY_SEARCH,
+    /** Precomputed grid spaced at the smallest gap between rows, constant time per lookup. */
+    UNIFORM_GRID
+  }
+
+  /** Result of a lookup, reused between calls. */
+  public static final class Shot {
+    public double distance = Double.NaN;
+    public double angle = Double.NaN;
+    public double speed = Double.NaN;
+  }
+
+  private final double[] distances;
+  private final double[] angles;
+  private final double[] speeds;
+  private final double maxDistance;
+  private final Interpolation interpolation;
+  private final Lookup lookup;
+
+  // Tangents for monotone cubic interpolation
+  private final double[] angleTangents;
+  private final double[] speedTangents;
+
+  // Segment containing the start of each grid cell
+  private final int[] gridSegments;
+  private final double gridSpacing;
+
+  /**
+   * Creates a new shot map.
+   *
+   * @param rows Rows of distance in meters, hood angle in degrees and flywheel speed in rotations
+   *     per second, sorted by strictly increasing distance.
+   * @param maxDistance Distance past which no shot is returned, at least the last row's distance.
+   */
+  public ShotMap(double[][] rows, double maxDistance, Interpolation interpolation, Lookup lookup) {
+    if (rows.length < 2) {
+      throw new IllegalArgumentException("A shot map needs at least two rows");
+    }
+    int n = rows.length;
+    distances = new double[n];
+    angles = new double[n];
+    speeds = new double[n];
+    double minGap = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      distances[i] = rows[i][0];
+      angles[i] = rows[i][1];
+      speeds[i] = rows[i][2];
+      if (i > 0) {
+        double gap = distances[i] - distances[i - 1];
+        if (!(gap > 0.0)) {
+          throw new IllegalArgumentException("Shot map distances must be strictly increasing");
+        }
+        minGap = Math.min(minGap, gap);
+      }
+    }
+    if (maxDistance < distances[n - 1]) {
+      throw new IllegalArgumentException("Max distance is inside the shot map");
+    }
+    this.maxDistance = maxDistance;
+    this.interpolation = interpolation;
+    this.lookup = lookup;
+
+    if (interpolation == Interpolation.MONOTONE_CUBIC) {
+      angleTangents = monotoneTangents(distances, angles);
+      speedTangents = monotoneTangents(distances, speeds);
+    } else {
+      angleTangents = null;
+      speedTangents = null;
+    }
+
+    if (lookup == Lookup.UNIFORM_GRID) {
+      // With cells no wider than the smallest gap, each cell holds at most one row
+      gridSpacing = minGap;
+      gridSegments = new int[(int) Math.ceil((distances[n - 1] - distances[0]) / minGap) + 1];
+      int segment = 0;
+      for (int cell = 0; cell < gridSegments.length; cell++) {
+        double cellStart = distances[0] + cell * gridSpacing;
+        while (segment < n - 2 && distances[segment + 1] <= cellStart) segment++;
+        gridSegments[cell] = segment;
+      }
+    } else {
+      gridSpacing = Double.NaN;
+      gridSegments = null;
+    }
+  }
+
+  /**
+   * Looks up the shot for a distance.
+   *
+   * @param distance Distance to the target in meters.
+   * @param shot Written with the shot, or with NaN angle and speed if there is none.
+   * @return False if the distance is NaN or past the max distance.
+   */
+  public boolean get(double distance, Shot shot) {
+    shot.distance = distance;
+    int last = distances.length - 1;
+    if (Double.isNaN(distance) || distance > maxDistance) {
+      shot.angle = Double.NaN;
+      shot.speed = Double.NaN;
+      return false;
+    }
+    if (distance <= distances[0]) {
+      shot.angle = angles[0];
+      shot.speed = speeds[0];
+      return true;
+    }
+    if (distance >= distances[last]) {
+      shot.angle = angles[last];
+      shot.speed = speeds[last];
+      return true;
+    }
+
+    int i = lookup == Lookup.UNIFORM_GRID ? gridSegment(distance) : binarySearch(distance);
+    double h = distances[i + 1] - distances[i];
+    double t = (distance - distances[i]) / h;
+    if (interpolation == Interpolation.MONOTONE_CUBIC) {
+      shot.angle = hermite(angles, angleTangents, i, h, t);
+      shot.speed = hermite(speeds, speedTangents, i, h, t);
+    } else {
+      shot.angle = angles[i] + (angles[i + 1] - angles[i]) * t;
+      shot.speed = speeds[i] + (speeds[i + 1] - speeds[i]) * t;
+    }
+    return true;
+  }
+
+  /** Returns the index of the last row at or before a distance inside the table. */
+  private int binarySearch(double distance) {
+    int low = 0;
+    int high = distances.length - 2;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (distances[mid] <= distance) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Same as {@link #binarySearch(double)}, starting from the precomputed grid. */
+  private int gridSegment(double distance) {
+    int cell = Math.min((int) ((distance - distances[0]) / gridSpacing), gridSegments.length - 1);
+    int segment = gridSegments[cell];
+    while (segment < distances.length - 2 && distances[segment + 1] <= distance) segment++;
+    return segment;
+  }
+
+  private static double hermite(double[] values, double[] tangents, int i, double h, double t) {
+    double t2 = t * t;
+    double t3 = t2 * t;
+    // Written relative to the first row so flat sections of the table come out exact
+    return values[i]
+        + (3.0 * t2 - 2.0 * t3) * (values[i + 1] - values[i])
+        + h * ((t3 - 2.0 * t2 + t) * tangents[i] + (t3 - t2) * tangents[i + 1]);
+  }
+
+  /** Fritsch-Butland tangents, which keep the cubic monotone wherever the rows are. */
+  private static double[] monotoneTangents(double[] x, double[] y) {
+    int n = x.length;
+    double[] secants = new double[n - 1];
+    for (int i = 0; i < n - 1; i++) {
+      secants[i] = (y[i + 1] - y[i]) / (x[i + 1] - x[i]);
+    }
+    double[] tangents = new double[n];
+    tangents[0] = secants[0];
+    tangents[n - 1] = secants[n - 2];
+    for (int i = 1; i < n - 1; i++) {
+      double before = secants[i - 1];
+      double after = secants[i];
+      if (before * after <= 0.0) {
+        tangents[i] = 0.0;
+        continue;
+      }
+      double hBefore = x[i] - x[i - 1];
+      double hAfter = x[i + 1] - x[i];
+      double denominator = (2.0 * hAfter + hBefore) / before + (hAfter + 2.0 * hBefore) / after;
+      tangents[i] = 3.0 * (hBefore + hAfter) / denominator;
+    }
+    return tangents;
+  }
+}
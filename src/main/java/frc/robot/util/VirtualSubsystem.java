@@ -13,13 +13,21 @@ import java.util.List;
 public abstract class VirtualSubsystem {
   private static List<VirtualSubsystem> subsystems = new ArrayList<>();
 
+  private final String profilerName = getClass().getSimpleName();
+
   public VirtualSubsystem() {
     subsystems.add(this);
   }
 
+  /** Runs every virtual subsystem, each timed by {@link LoopProfiler} under its class name. */
   public static void periodicAll() {
     for (VirtualSubsystem subsystem : subsystems) {
-      subsystem.periodic();
+      LoopProfiler.push(subsystem.profilerName);
+      try {
+        subsystem.periodic();
+      } finally {
+        LoopProfiler.pop();
+      }
     }
   }
 
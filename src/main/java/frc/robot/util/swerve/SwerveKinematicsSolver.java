@@ -0,0 +1,156 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util.swerve;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Forward swerve kinematics that write into caller owned objects instead of allocating.
+ *
+ * <p>Gives the same least squares result as {@link
+ * edu.wpi.first.math.kinematics.SwerveDriveKinematics#toChassisSpeeds} and {@link
+ * edu.wpi.first.math.kinematics.SwerveDriveKinematics#toTwist2d}, but solves the 3x3 normal
+ * equations directly with preallocated scratch arrays. Modules can also be weighted, which lets
+ * odometry ignore a slipping module, and the residual of each module is available after a solve.
+ * Not thread safe.
+ */
+public class SwerveKinematicsSolver {
+  private final double[] moduleX;
+  private final double[] moduleY;
+  private final double[] weights; // Weight of each module in the current solve
+  private final double[] measuredX;
+  private final double[] measuredY;
+  private final double[] solution = new double[3];
+
+  public SwerveKinematicsSolver(Translation2d[] moduleLocations) {
+    int moduleCount = moduleLocations.length;
+    moduleX = new double[moduleCount];
+    moduleY = new double[moduleCount];
+    weights = new double[moduleCount];
+    measuredX = new double[moduleCount];
+    measuredY = new double[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      moduleX[i] = moduleLocations[i].getX();
+      moduleY[i] = moduleLocations[i].getY();
+    }
+  }
+
+  /** Writes the robot relative speeds that best match {@code states} into {@code result}. */
+  public void toChassisSpeeds(SwerveModuleState[] states, ChassisSpeeds result) {
+    for (int i = 0; i < moduleX.length; i++) {
+      measuredX[i] = states[i].speedMetersPerSecond * states[i].angle.getCos();
+      measuredY[i] = states[i].speedMetersPerSecond * states[i].angle.getSin();
+      weights[i] = 1.0;
+    }
+    solve();
+    result.vxMetersPerSecond = solution[0];
+    result.vyMetersPerSecond = solution[1];
+    result.omegaRadiansPerSecond = solution[2];
+  }
+
+  /**
+   * Writes the robot relative movement that best matches the change from {@code start} to {@code
+   * end} into {@code result}.
+   */
+  public void toTwist2d(SwerveModulePosition[] start, SwerveModulePosition[] end, Twist2d result) {
+    toTwist2d(start, end, null, result);
+  }
+
+  /**
+   * Writes the robot relative movement that best matches the change from {@code start} to {@code
+   * end} into {@code result}, using weighted least squares.
+   *
+   * @param moduleWeights Weight of each module, or null to weight every module equally. A module
+   *     with a weight of zero is ignored.
+   * @return False if the weighted modules cannot determine the movement, in which case {@code
+   *     result} is zero.
+   */
+  public boolean toTwist2d(
+      SwerveModulePosition[] start,
+      SwerveModulePosition[] end,
+      double[] moduleWeights,
+      Twist2d result) {
+    for (int i = 0; i < moduleX.length; i++) {
+      double distance = end[i].distanceMeters - start[i].distanceMeters;
+      measuredX[i] = distance * end[i].angle.getCos();
+      measuredY[i] = distance * end[i].angle.getSin();
+      weights[i] = moduleWeights == null ? 1.0 : moduleWeights[i];
+    }
+    boolean solved = solve();
+    result.dx = solution[0];
+    result.dy = solution[1];
+    result.dtheta = solution[2];
+    return solved;
+  }
+
+  /**
+   * Writes the robot relative movement that best matches each module driving {@code distances[i]}
+   * meters at {@code angles[i]} radians into {@code result}.
+   */
+  public void toTwist2d(double[] distances, double[] angles, Twist2d result) {
+    for (int i = 0; i < moduleX.length; i++) {
+      measuredX[i] = distances[i] * Math.cos(angles[i]);
+      measuredY[i] = distances[i] * Math.sin(angles[i]);
+      weights[i] = 1.0;
+    }
+    solve();
+    result.dx = solution[0];
+    result.dy = solution[1];
+    result.dtheta = solution[2];
+  }
+
+  /**
+   * Returns how far the measurement of a module was from the movement found by the last solve, in
+   * the units of that solve. Also returned for modules with a weight of zero.
+   */
+  public double getResidual(int module) {
+    double predictedX = solution[0] - solution[2] * moduleY[module];
+    double predictedY = solution[1] + solution[2] * moduleX[module];
+    return Math.hypot(measuredX[module] - predictedX, measuredY[module] - predictedY);
+  }
+
+  /**
+   * Solves for the (x, y, theta) motion that best matches the measured module vectors, weighting
+   * each module by {@link #weights}. A module at (mx, my) moves by (x - theta * my, y + theta *
+   * mx).
+   *
+   * @return False if the weighted modules cannot determine the motion, in which case the solution
+   *     is zero.
+   */
+  private boolean solve() {
+    // Normal equations A^T W A s = A^T W b, where A^T W A = [[a, 0, c], [0, a, d], [c, d, e]]
+    double a = 0.0, c = 0.0, d = 0.0, e = 0.0;
+    double bx = 0.0, by = 0.0, btheta = 0.0;
+    for (int i = 0; i < moduleX.length; i++) {
+      double w = weights[i];
+      a += w;
+      c -= w * moduleY[i];
+      d += w * moduleX[i];
+      e += w * (moduleX[i] * moduleX[i] + moduleY[i] * moduleY[i]);
+      bx += w * measuredX[i];
+      by += w * measuredY[i];
+      btheta += w * (moduleX[i] * measuredY[i] - moduleY[i] * measuredX[i]);
+    }
+    // Substitute the first two rows into the third to solve for theta
+    double denominator = a * e - c * c - d * d;
+    if (a < 1e-9 || Math.abs(denominator) < 1e-9) {
+      solution[0] = 0.0;
+      solution[1] = 0.0;
+      solution[2] = 0.0;
+      return false;
+    }
+    solution[2] = (a * btheta - c * bx - d * by) / denominator;
+    solution[0] = (bx - c * solution[2]) / a;
+    solution[1] = (by - d * solution[2]) / a;
+    return true;
+  }
+}
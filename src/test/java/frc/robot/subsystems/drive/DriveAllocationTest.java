@@ -0,0 +1,128 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the drive loop does not allocate per odometry frame. Allocation is measured with the
+ * thread's allocated byte counter, after a warm up so class loading and JIT are not counted.
+ *
+ * <p>Logged inputs still allocate every cycle: AdvantageKit keeps a reference to every logged
+ * array, so the timestamp and drive position columns and the {@code Rotation2d} arrays are new each
+ * cycle.
+ */
+class DriveAllocationTest {
+  private static final int warmupCycles = 500;
+  private static final int measuredCycles = 1000;
+  private static final int framesPerCycle = 20;
+
+  /**
+   * Drive loop with stopped modules, no driver input and one odometry sample per cycle, with the
+   * logger not running. What is left, in bytes per cycle before escape analysis:
+   *
+   * <ul>
+   *   <li>Setpoint generator, about 1700: two module state arrays from the kinematics, the solved
+   *       chassis speeds, its per module scratch arrays, steering overrides and rotations
+   *   <li>Tunable PID checks in each module, about 860: vararg arrays, callbacks and boxed ids
+   *   <li>Odometry observation, about 450: the two {@code Pose2d.exp} calls in RobotState
+   *   <li>Teleop controller, about 280: field relative speeds and the alliance flip
+   *   <li>Logged desired module states, about 130
+   *   <li>Slip flag and residual copies, 72
+   * </ul>
+   */
+  private static final long maxDriveBytesPerCycle = 4 * 1024;
+
+  private static final ThreadMXBean threadBean =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  @BeforeAll
+  static void setup() {
+    assertTrue(HAL.initialize(500, 0));
+  }
+
+  @Test
+  void odometrySnapshotDoesNotAllocate() {
+    OdometryFrames frames = new OdometryFrames();
+    OdometryFrameBuffer source = frames.createSource(OdometryFrameBuffer.defaultCapacity);
+    source.addSignalIndex(OdometryFrameBuffer.gyroYawIndex);
+    double[] frame = new double[OdometryFrameBuffer.frameLength];
+    double[] timestamp = {0.0};
+
+    Runnable cycle =
+        () -> {
+          for (int i = 0; i < framesPerCycle; i++) {
+            timestamp[0] += 0.001;
+            frame[OdometryFrameBuffer.timestampIndex] = timestamp[0];
+            frame[OdometryFrameBuffer.gyroYawIndex] = timestamp[0];
+            source.offer(frame);
+          }
+          int count = frames.takeSnapshot();
+          double sum = 0.0;
+          for (int i = 0; i < count; i++) {
+            sum += frames.get(i, OdometryFrameBuffer.gyroYawIndex);
+          }
+          assertTrue(sum > 0.0);
+        };
+    for (int i = 0; i < warmupCycles; i++) {
+      cycle.run();
+    }
+
+    long start = threadBean.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < measuredCycles; i++) {
+      cycle.run();
+    }
+    long allocated = threadBean.getCurrentThreadAllocatedBytes() - start;
+    assertEquals(0, allocated / measuredCycles, "Bytes allocated per snapshot");
+  }
+
+  @Test
+  void drivePeriodicStaysWithinBudget() {
+    // Modules report the same sample every cycle, so the motor sim matrix math is not counted
+    Drive drive =
+        new Drive(
+            new GyroIO() {},
+            new FixedModuleIO(),
+            new FixedModuleIO(),
+            new FixedModuleIO(),
+            new FixedModuleIO());
+    for (int i = 0; i < warmupCycles; i++) {
+      drive.periodic();
+    }
+
+    long start = threadBean.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < measuredCycles; i++) {
+      drive.periodic();
+    }
+    long bytesPerCycle = (threadBean.getCurrentThreadAllocatedBytes() - start) / measuredCycles;
+    System.out.println("Drive.periodic allocated " + bytesPerCycle + " bytes per cycle");
+    assertTrue(
+        bytesPerCycle <= maxDriveBytesPerCycle,
+        "Drive.periodic allocated " + bytesPerCycle + " bytes per cycle");
+  }
+
+  /** Reports one odometry sample per cycle from arrays that are reused. */
+  private static class FixedModuleIO implements ModuleIO {
+    private final double[] drivePositions = {0.0};
+    private final Rotation2d[] turnPositions = {new Rotation2d()};
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+      inputs.odometryDrivePositionsMeters = drivePositions;
+      inputs.odometryTurnPositions = turnPositions;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/** Checks {@link DoubleRingBuffer} on one thread, across two threads and against a boxed queue. */
+class DoubleRingBufferTest {
+  private static final ThreadMXBean threadBean =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  @Test
+  void roundsCapacityUpToPowerOfTwo() {
+    assertEquals(2, new DoubleRingBuffer(1).capacity());
+    assertEquals(8, new DoubleRingBuffer(8).capacity());
+    assertEquals(16, new DoubleRingBuffer(9).capacity());
+  }
+
+  @Test
+  void emptyBufferDrainsNothing() {
+    DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+    assertEquals(0, buffer.size());
+    assertEquals(0, buffer.drain().length);
+    assertEquals(0, buffer.drainTo(new double[4]));
+
+    buffer.offer(1.0);
+    buffer.drain();
+    assertEquals(0, buffer.drain().length);
+  }
+
+  @Test
+  void fullBufferDropsUntilDrained() {
+    DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+    for (int i = 0; i < 8; i++) {
+      assertTrue(buffer.offer(i));
+    }
+    assertFalse(buffer.offer(8.0));
+    assertFalse(buffer.offer(new double[] {8.0}));
+    assertEquals(8, buffer.size());
+
+    // Draining part of the buffer makes room for exactly that many samples
+    double[] destination = new double[3];
+    assertEquals(3, buffer.drainTo(destination));
+    assertEquals(0.0, destination[0]);
+    assertEquals(2.0, destination[2]);
+    assertFalse(buffer.offer(new double[] {8.0, 9.0, 10.0, 11.0}));
+    assertEquals(5, buffer.size());
+    assertTrue(buffer.offer(new double[] {8.0, 9.0, 10.0}));
+    assertFalse(buffer.offer(11.0));
+
+    double[] samples = buffer.drain();
+    assertEquals(8, samples.length);
+    for (int i = 0; i < samples.length; i++) {
+      assertEquals(i + 3, samples[i]);
+    }
+  }
+
+  @Test
+  void wrapsAroundInOrder() {
+    DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+    double[] destination = new double[3];
+    double next = 0.0;
+    double expected = 0.0;
+    // Write five and read three at a time, so the indices wrap at a different place every pass
+    for (int pass = 0; pass < 100; pass++) {
+      while (buffer.size() + 5 <= buffer.capacity()) {
+        assertTrue(buffer.offer(new double[] {next, next + 1, next + 2, next + 3, next + 4}));
+        next += 5;
+      }
+      int count = buffer.drainTo(destination);
+      assertEquals(3, count);
+      for (int i = 0; i < count; i++) {
+        assertEquals(expected++, destination[i]);
+      }
+    }
+    for (double sample : buffer.drain()) {
+      assertEquals(expected++, sample);
+    }
+    assertEquals(next, expected);
+  }
+
+  @Test
+  void drainsAtOffsetAndClears() {
+    DoubleRingBuffer buffer = new DoubleRingBuffer(8);
+    buffer.offer(new double[] {1.0, 2.0, 3.0});
+    double[] destination = {-1.0, -1.0, -1.0, -1.0};
+    assertEquals(2, buffer.drainTo(destination, 2));
+    assertEquals(-1.0, destination[1]);
+    assertEquals(1.0, destination[2]);
+    assertEquals(2.0, destination[3]);
+    assertEquals(1, buffer.size());
+
+    buffer.clear();
+    assertEquals(0, buffer.size());
+    assertTrue(buffer.offer(4.0));
+    assertEquals(4.0, buffer.drain()[0]);
+  }
+
+  @Test
+  void keepsOrderAcrossThreads() throws InterruptedException {
+    final int frames = 200_000;
+    final int frameLength = 3;
+    DoubleRingBuffer buffer = new DoubleRingBuffer(64);
+    AtomicReference<String> failure = new AtomicReference<>();
+
+    // Frames are offered as blocks, so the consumer also checks that it never sees part of one
+    Thread producer =
+        new Thread(
+            () -> {
+              double[] frame = new double[frameLength];
+              for (int i = 0; i < frames; i++) {
+                frame[0] = i;
+                frame[1] = i;
+                frame[2] = i;
+                while (!buffer.offer(frame)) {
+                  Thread.yield();
+                }
+              }
+            });
+    Thread consumer =
+        new Thread(
+            () -> {
+              double[] destination = new double[32 * frameLength];
+              int expected = 0;
+              while (expected < frames && failure.get() == null) {
+                int count = buffer.drainTo(destination);
+                if (count % frameLength != 0) {
+                  failure.set("Drained " + count + " samples, not whole frames");
+                }
+                for (int i = 0; i < count; i++) {
+                  if (destination[i] != expected) {
+                    failure.set("Read " + destination[i] + " but expected " + expected);
+                    break;
+                  }
+                  if (i % frameLength == frameLength - 1) {
+                    expected++;
+                  }
+                }
+                if (count == 0) {
+                  Thread.yield();
+                }
+              }
+            });
+    // A failed consumer leaves the producer waiting for room, so don't let it hold up the JVM
+    producer.setDaemon(true);
+    consumer.setDaemon(true);
+    producer.start();
+    consumer.start();
+    consumer.join(10_000);
+    producer.join(1_000);
+
+    assertNull(failure.get(), failure.get());
+    assertFalse(producer.isAlive() || consumer.isAlive(), "Threads did not finish");
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  void beatsBoxedQueue() {
+    final int samplesPerCycle = 50;
+    final int cycles = 20_000;
+    DoubleRingBuffer buffer = new DoubleRingBuffer(64);
+    double[] destination = new double[64];
+    ArrayBlockingQueue<Double> queue = new ArrayBlockingQueue<>(64);
+    List<Double> queueDestination = new ArrayList<>(64);
+
+    Runnable bufferCycle =
+        () -> {
+          for (int i = 0; i < samplesPerCycle; i++) {
+            buffer.offer(i + 0.5);
+          }
+          buffer.drainTo(destination);
+        };
+    Runnable queueCycle =
+        () -> {
+          for (int i = 0; i < samplesPerCycle; i++) {
+            queue.offer(i + 0.5);
+          }
+          queue.drainTo(queueDestination);
+          queueDestination.clear();
+        };
+
+    // Warm up both so the comparison is of compiled code
+    for (int i = 0; i < cycles; i++) {
+      bufferCycle.run();
+      queueCycle.run();
+    }
+    long bufferBytes = threadBean.getCurrentThreadAllocatedBytes();
+    long bufferNanos = System.nanoTime();
+    for (int i = 0; i < cycles; i++) {
+      bufferCycle.run();
+    }
+    bufferNanos = System.nanoTime() - bufferNanos;
+    bufferBytes = threadBean.getCurrentThreadAllocatedBytes() - bufferBytes;
+
+    long queueBytes = threadBean.getCurrentThreadAllocatedBytes();
+    long queueNanos = System.nanoTime();
+    for (int i = 0; i < cycles; i++) {
+      queueCycle.run();
+    }
+    queueNanos = System.nanoTime() - queueNanos;
+    queueBytes = threadBean.getCurrentThreadAllocatedBytes() - queueBytes;
+
+    long samples = (long) samplesPerCycle * cycles;
+    System.out.printf(
+        "Per sample: DoubleRingBuffer %.1f ns %d bytes, ArrayBlockingQueue %.1f ns %d bytes%n",
+        (double) bufferNanos / samples,
+        bufferBytes / samples,
+        (double) queueNanos / samples,
+        queueBytes / samples);
+    assertEquals(0, bufferBytes / samples, "DoubleRingBuffer bytes per sample");
+    // Every sample is boxed into a 16 byte Double
+    assertTrue(queueBytes / samples >= 16, "ArrayBlockingQueue bytes per sample");
+    assertTrue(
+        bufferNanos < queueNanos,
+        "DoubleRingBuffer took " + bufferNanos + " ns, ArrayBlockingQueue " + queueNanos + " ns");
+  }
+}
@@ -0,0 +1,329 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import frc.robot.util.PoseEstimator.TimestampedVisionUpdate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the incremental replay of {@link PoseEstimator} against a full recompute of the same
+ * history, with 250 Hz odometry and two cameras. Sim timing is paused so both estimators expire
+ * the same updates.
+ */
+class PoseEstimatorTest {
+  private static final Matrix<N3, N1> stateStdDevs = VecBuilder.fill(0.003, 0.003, 0.0002);
+  private static final double loopPeriodSecs = 0.02;
+  private static final double tolerance = 1e-6;
+
+  @BeforeAll
+  static void setup() {
+    assertTrue(HAL.initialize(500, 0));
+    SimHooks.pauseTiming();
+  }
+
+  @AfterAll
+  static void cleanup() {
+    SimHooks.resumeTiming();
+  }
+
+  @BeforeEach
+  void stepPastHistory() {
+    // Updates from an earlier test can't expire into this one
+    SimHooks.stepTiming(1.0);
+  }
+
+  @Test
+  void lateVisionMatchesFullRecompute() {
+    Simulation simulation = new Simulation(new Random(6328), 0.004, new double[] {0.035, 0.06});
+    for (int cycle = 0; cycle < 500; cycle++) {
+      simulation.runCycle();
+      assertPose(simulation.reference.getLatestPose(), simulation.estimator.getLatestPose());
+    }
+  }
+
+  @Test
+  void fullBufferMatchesFullRecompute() {
+    // 1 kHz odometry fills the ring before the history expires. Each batch lands next to the oldest
+    // update, so later measurements fold updates changed by earlier ones that aren't replayed yet.
+    Simulation simulation =
+        new Simulation(new Random(254), 0.001, new double[] {0.253, 0.252, 0.251, 0.25, 0.249});
+    simulation.matchOdometryTimestamps = true;
+    for (int cycle = 0; cycle < 200; cycle++) {
+      simulation.runCycle();
+      assertPose(simulation.reference.getLatestPose(), simulation.estimator.getLatestPose());
+    }
+  }
+
+  @Test
+  void replayIsFasterThanFullRecompute() {
+    Simulation estimatorOnly = new Simulation(new Random(1678), 0.004, new double[] {0.035, 0.06});
+    estimatorOnly.runReference = false;
+    Simulation referenceOnly = new Simulation(new Random(1678), 0.004, new double[] {0.035, 0.06});
+    referenceOnly.runEstimator = false;
+
+    for (int cycle = 0; cycle < 2000; cycle++) {
+      estimatorOnly.runCycle();
+      referenceOnly.runCycle();
+    }
+    long estimatorNanos = 0;
+    long referenceNanos = 0;
+    for (int cycle = 0; cycle < 2000; cycle++) {
+      estimatorNanos += estimatorOnly.runCycle();
+      referenceNanos += referenceOnly.runCycle();
+    }
+    System.out.printf(
+        "PoseEstimator cycle: replay %.1f us, full recompute %.1f us%n",
+        estimatorNanos / 2000 / 1000.0, referenceNanos / 2000 / 1000.0);
+    assertTrue(
+        estimatorNanos < referenceNanos,
+        "Replay took " + estimatorNanos + " ns, full recompute " + referenceNanos + " ns");
+  }
+
+  private static void assertPose(Pose2d expected, Pose2d actual) {
+    assertEquals(expected.getX(), actual.getX(), tolerance);
+    assertEquals(expected.getY(), actual.getY(), tolerance);
+    assertEquals(0.0, expected.getRotation().minus(actual.getRotation()).getRadians(), tolerance);
+  }
+
+  /** Drives both estimators with the same odometry and vision, one robot loop at a time. */
+  private static class Simulation {
+    private final Random random;
+    private final double odometryPeriodSecs;
+    private final double[] cameraLatencySecs;
+    private final PoseEstimator estimator = new PoseEstimator(stateStdDevs);
+    private final ReferenceEstimator reference = new ReferenceEstimator(stateStdDevs);
+    private final List<Double> odometryTimestamps = new ArrayList<>();
+    private boolean matchOdometryTimestamps = false;
+    private boolean runEstimator = true;
+    private boolean runReference = true;
+    private double lastOdometryTimestamp;
+
+    Simulation(Random random, double odometryPeriodSecs, double[] cameraLatencySecs) {
+      this.random = random;
+      this.odometryPeriodSecs = odometryPeriodSecs;
+      this.cameraLatencySecs = cameraLatencySecs;
+      lastOdometryTimestamp = Timer.getFPGATimestamp();
+      Pose2d start = new Pose2d(2.0, 4.0, Rotation2d.fromDegrees(30.0));
+      estimator.resetPose(start);
+      reference.resetPose(start);
+    }
+
+    /** Runs one loop and returns the nanoseconds spent in the estimators. */
+    long runCycle() {
+      SimHooks.stepTiming(loopPeriodSecs);
+      double now = Timer.getFPGATimestamp();
+      List<Twist2d> twists = new ArrayList<>();
+      List<Double> timestamps = new ArrayList<>();
+      while (lastOdometryTimestamp + odometryPeriodSecs <= now + 1e-9) {
+        lastOdometryTimestamp += odometryPeriodSecs;
+        timestamps.add(lastOdometryTimestamp);
+        twists.add(
+            new Twist2d(
+                0.01 + random.nextGaussian() * 0.002,
+                random.nextGaussian() * 0.002,
+                random.nextGaussian() * 0.001));
+      }
+      odometryTimestamps.addAll(timestamps);
+
+      List<TimestampedVisionUpdate> visionUpdates = new ArrayList<>();
+      Pose2d latest = runReference ? reference.getLatestPose() : estimator.getLatestPose();
+      for (double latencySecs : cameraLatencySecs) {
+        double timestamp = now - latencySecs - random.nextDouble() * 0.005;
+        if (matchOdometryTimestamps && random.nextBoolean()) {
+          timestamp = closestOdometryTimestamp(timestamp);
+        }
+        visionUpdates.add(
+            new TimestampedVisionUpdate(
+                timestamp,
+                new Pose2d(
+                    latest.getX() + random.nextGaussian() * 0.05,
+                    latest.getY() + random.nextGaussian() * 0.05,
+                    latest.getRotation().plus(new Rotation2d(random.nextGaussian() * 0.02))),
+                VecBuilder.fill(
+                    0.02 + random.nextDouble() * 0.2,
+                    0.02 + random.nextDouble() * 0.2,
+                    0.05 + random.nextDouble() * 0.5)));
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < twists.size(); i++) {
+        if (runEstimator) {
+          estimator.addDriveData(timestamps.get(i), twists.get(i));
+        }
+        if (runReference) {
+          reference.addDriveData(timestamps.get(i), twists.get(i));
+        }
+      }
+      if (runEstimator) {
+        estimator.addVisionData(visionUpdates);
+        estimator.getLatestPose();
+      }
+      if (runReference) {
+        reference.addVisionData(visionUpdates);
+        reference.getLatestPose();
+      }
+      return System.nanoTime() - start;
+    }
+
+    private double closestOdometryTimestamp(double timestamp) {
+      double closest = odometryTimestamps.get(0);
+      for (double odometryTimestamp : odometryTimestamps) {
+        if (Math.abs(odometryTimestamp - timestamp) < Math.abs(closest - timestamp)) {
+          closest = odometryTimestamp;
+        }
+      }
+      return closest;
+    }
+  }
+
+  /**
+   * Keeps the same history as {@link PoseEstimator}, but recomputes the whole history from the base
+   * pose on every call.
+   */
+  private static class ReferenceEstimator {
+    private final double[] q = new double[3];
+    private final NavigableMap<Double, Update> updates = new TreeMap<>();
+    private Pose2d basePose = new Pose2d();
+    private Pose2d latestPose = new Pose2d();
+
+    ReferenceEstimator(Matrix<N3, N1> stateStdDevs) {
+      for (int i = 0; i < 3; ++i) {
+        q[i] = stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0);
+      }
+    }
+
+    Pose2d getLatestPose() {
+      return latestPose;
+    }
+
+    void resetPose(Pose2d pose) {
+      basePose = pose;
+      updates.clear();
+      update();
+    }
+
+    void addDriveData(double timestamp, Twist2d twist) {
+      expire();
+      if (updates.size() == PoseEstimator.capacity) {
+        foldOldest();
+      }
+      updates.put(timestamp, new Update(twist, new ArrayList<>()));
+      update();
+    }
+
+    void addVisionData(List<TimestampedVisionUpdate> visionData) {
+      expire();
+      for (var visionUpdate : visionData) {
+        double timestamp = visionUpdate.timestamp();
+        if (updates.containsKey(timestamp)) {
+          updates.get(timestamp).add(visionUpdate);
+          continue;
+        }
+        if (updates.floorKey(timestamp) == null || updates.ceilingKey(timestamp) == null) {
+          continue;
+        }
+        if (updates.size() == PoseEstimator.capacity) {
+          foldOldest();
+          if (updates.floorKey(timestamp) == null) {
+            continue;
+          }
+        }
+
+        // Split the next twist
+        Map.Entry<Double, Update> prev = updates.floorEntry(timestamp);
+        Map.Entry<Double, Update> next = updates.ceilingEntry(timestamp);
+        Twist2d twist = next.getValue().twist();
+        double scale = (timestamp - prev.getKey()) / (next.getKey() - prev.getKey());
+        Twist2d before = new Twist2d(twist.dx * scale, twist.dy * scale, twist.dtheta * scale);
+        Twist2d after =
+            new Twist2d(twist.dx - before.dx, twist.dy - before.dy, twist.dtheta - before.dtheta);
+        updates.put(next.getKey(), new Update(after, next.getValue().visionUpdates()));
+        Update update = new Update(before, new ArrayList<>());
+        update.add(visionUpdate);
+        updates.put(timestamp, update);
+      }
+      update();
+    }
+
+    private void expire() {
+      while (updates.size() > 1
+          && updates.firstKey() < Timer.getFPGATimestamp() - PoseEstimator.historyLengthSecs) {
+        foldOldest();
+      }
+    }
+
+    private void foldOldest() {
+      basePose = updates.pollFirstEntry().getValue().apply(basePose, q);
+    }
+
+    private void update() {
+      latestPose = basePose;
+      for (Update update : updates.values()) {
+        latestPose = update.apply(latestPose, q);
+      }
+    }
+
+    private record Update(Twist2d twist, List<TimestampedVisionUpdate> visionUpdates) {
+      /** Adds a measurement, keeping least trusted first. */
+      void add(TimestampedVisionUpdate visionUpdate) {
+        int i = 0;
+        double stdDevSum = stdDevSum(visionUpdate);
+        while (i < visionUpdates.size() && stdDevSum(visionUpdates.get(i)) >= stdDevSum) {
+          i++;
+        }
+        if (visionUpdates.size() < 4) {
+          visionUpdates.add(i, visionUpdate);
+        }
+      }
+
+      Pose2d apply(Pose2d lastPose, double[] q) {
+        Pose2d pose = lastPose.exp(twist);
+        for (var visionUpdate : visionUpdates) {
+          Twist2d visionTwist = pose.log(visionUpdate.pose());
+          pose =
+              pose.exp(
+                  new Twist2d(
+                      visionTwist.dx * gain(q[0], visionUpdate.stdDevs().get(0, 0)),
+                      visionTwist.dy * gain(q[1], visionUpdate.stdDevs().get(1, 0)),
+                      visionTwist.dtheta * gain(q[2], visionUpdate.stdDevs().get(2, 0))));
+        }
+        return pose;
+      }
+
+      private static double stdDevSum(TimestampedVisionUpdate visionUpdate) {
+        return visionUpdate.stdDevs().get(0, 0) + visionUpdate.stdDevs().get(1, 0);
+      }
+
+      private static double gain(double q, double stdDev) {
+        return q == 0.0 ? 0.0 : q / (q + Math.sqrt(q * stdDev * stdDev));
+      }
+    }
+  }
+}
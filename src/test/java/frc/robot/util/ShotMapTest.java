@@ -0,0 +1,181 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import frc.robot.subsystems.Shooter;
+import frc.robot.util.ShotMap.Interpolation;
+import frc.robot.util.ShotMap.Lookup;
+import frc.robot.util.ShotMap.Shot;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/** Checks {@link ShotMap} against the shooter's distance table. */
+class ShotMapTest {
+  private static final double[][] rows = Shooter.distanceMap;
+  private static final double maxDistance = Shooter.maxShotDistance;
+  private static final double sweepStep = 0.001;
+  private static final int timedLookups = 1 << 16;
+  private static final int timedPasses = 50;
+
+  private static ShotMap create(Interpolation interpolation, Lookup lookup) {
+    return new ShotMap(rows, maxDistance, interpolation, lookup);
+  }
+
+  @Test
+  void returnsEveryRowExactly() {
+    Shot shot = new Shot();
+    for (Interpolation interpolation : Interpolation.values()) {
+      for (Lookup lookup : Lookup.values()) {
+        ShotMap map = create(interpolation, lookup);
+        for (double[] row : rows) {
+          assertTrue(map.get(row[0], shot));
+          assertEquals(row[1], shot.angle, 0.0, interpolation + " " + lookup + " at " + row[0]);
+          assertEquals(row[2], shot.speed, 0.0, interpolation + " " + lookup + " at " + row[0]);
+        }
+      }
+    }
+  }
+
+  @Test
+  void clampsBelowFirstRow() {
+    Shot shot = new Shot();
+    double[] first = rows[0];
+    for (Interpolation interpolation : Interpolation.values()) {
+      for (Lookup lookup : Lookup.values()) {
+        ShotMap map = create(interpolation, lookup);
+        for (double distance : new double[] {first[0] - 0.01, 0.5, 0.0}) {
+          assertTrue(map.get(distance, shot));
+          assertEquals(first[1], shot.angle, 0.0);
+          assertEquals(first[2], shot.speed, 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  void usesLastRowUpToMaxDistance() {
+    Shot shot = new Shot();
+    double[] last = rows[rows.length - 1];
+    for (Interpolation interpolation : Interpolation.values()) {
+      for (Lookup lookup : Lookup.values()) {
+        ShotMap map = create(interpolation, lookup);
+        for (double distance : new double[] {last[0] + 0.05, maxDistance}) {
+          assertTrue(map.get(distance, shot));
+          assertEquals(last[1], shot.angle, 0.0);
+          assertEquals(last[2], shot.speed, 0.0);
+        }
+        for (double distance : new double[] {Math.nextUp(maxDistance), 6.0, Double.NaN}) {
+          assertFalse(map.get(distance, shot));
+          assertTrue(Double.isNaN(shot.angle));
+          assertTrue(Double.isNaN(shot.speed));
+        }
+      }
+    }
+  }
+
+  @Test
+  void gridMatchesBinarySearch() {
+    Shot searched = new Shot();
+    Shot gridded = new Shot();
+    for (Interpolation interpolation : Interpolation.values()) {
+      ShotMap search = create(interpolation, Lookup.BINARY_SEARCH);
+      ShotMap grid = create(interpolation, Lookup.UNIFORM_GRID);
+      int steps = (int) Math.ceil((maxDistance + 0.1) / sweepStep);
+      for (int i = 0; i <= steps; i++) {
+        double distance = i * sweepStep;
+        assertEquals(search.get(distance, searched), grid.get(distance, gridded));
+        assertEquals(searched.angle, gridded.angle, 0.0, interpolation + " at " + distance);
+        assertEquals(searched.speed, gridded.speed, 0.0, interpolation + " at " + distance);
+      }
+    }
+  }
+
+  @Test
+  void gridIsNotSlowerThanBinarySearch() {
+    // Random distances across the table, so the search branches cannot be predicted
+    Random random = new Random(6328);
+    double[] distances = new double[timedLookups];
+    for (int i = 0; i < distances.length; i++) {
+      distances[i] = random.nextDouble() * maxDistance;
+    }
+    for (Interpolation interpolation : Interpolation.values()) {
+      ShotMap search = create(interpolation, Lookup.BINARY_SEARCH);
+      ShotMap grid = create(interpolation, Lookup.UNIFORM_GRID);
+      // The first passes warm up both, so take the best pass of compiled code
+      long searchNanos = Long.MAX_VALUE;
+      long gridNanos = Long.MAX_VALUE;
+      for (int pass = 0; pass < timedPasses; pass++) {
+        searchNanos = Math.min(searchNanos, timeLookups(search, distances));
+        gridNanos = Math.min(gridNanos, timeLookups(grid, distances));
+      }
+      System.out.printf(
+          "%s per lookup: binary search %.1f ns, uniform grid %.1f ns%n",
+          interpolation,
+          (double) searchNanos / timedLookups,
+          (double) gridNanos / timedLookups);
+      // Allow for timer noise, since a lookup in a table this short takes only tens of ns
+      assertTrue(
+          gridNanos <= searchNanos * 1.25,
+          interpolation + " grid took " + gridNanos + " ns, search " + searchNanos + " ns");
+    }
+  }
+
+  private static long timeLookups(ShotMap map, double[] distances) {
+    Shot shot = new Shot();
+    double sum = 0.0;
+    long start = System.nanoTime();
+    for (double distance : distances) {
+      map.get(distance, shot);
+      sum += shot.angle;
+    }
+    long nanos = System.nanoTime() - start;
+    // Use the result so the lookups are not optimized away
+    assertFalse(Double.isNaN(sum));
+    return nanos;
+  }
+
+  @Test
+  void monotoneCubicStaysFlatAndMonotone() {
+    ShotMap map = create(Interpolation.MONOTONE_CUBIC, Lookup.BINARY_SEARCH);
+    Shot shot = new Shot();
+    for (int i = 0; i < rows.length - 1; i++) {
+      double[] start = rows[i];
+      double[] end = rows[i + 1];
+      double lastAngle = start[1];
+      double lastSpeed = start[2];
+      int steps = (int) Math.round((end[0] - start[0]) / sweepStep);
+      for (int step = 1; step < steps; step++) {
+        double distance = start[0] + (end[0] - start[0]) * step / steps;
+        assertTrue(map.get(distance, shot));
+        String message = "at " + distance;
+
+        // Every value stays between the rows around it
+        assertTrue(shot.angle >= Math.min(start[1], end[1]), message);
+        assertTrue(shot.angle <= Math.max(start[1], end[1]), message);
+        assertTrue(shot.speed >= Math.min(start[2], end[2]), message);
+        assertTrue(shot.speed <= Math.max(start[2], end[2]), message);
+        if (start[1] == end[1]) {
+          assertEquals(start[1], shot.angle, 0.0, message);
+        }
+        if (start[2] == end[2]) {
+          assertEquals(start[2], shot.speed, 0.0, message);
+        }
+
+        // The table only increases, so the curve never turns back
+        assertTrue(shot.angle >= lastAngle, message);
+        assertTrue(shot.speed >= lastSpeed, message);
+        lastAngle = shot.angle;
+        lastSpeed = shot.speed;
+      }
+    }
+  }
+}